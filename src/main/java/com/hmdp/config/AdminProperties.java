@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 管理接口相关的配置，对应配置文件里 hmdp.admin 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 可以调用 /admin/** 管理接口的用户id，没有配置时所有用户都不能调用
+     */
+    private Set<Long> userIds = new HashSet<>();
+}
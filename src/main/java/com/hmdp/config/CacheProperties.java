@@ -0,0 +1,224 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存工具类 CacheClient 相关的可调参数，对应配置文件里 hmdp.cache 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 缓存值的编码方式：json 可读、和之前的数据兼容；smile 是二进制格式，更小、解析更快，能读 json 写的旧数据
+     */
+    private String codec = "json";
+
+    /**
+     * smile 编码的数据超过这个大小时压缩，0 表示不压缩
+     */
+    private DataSize compressThreshold = DataSize.ofKilobytes(1);
+
+    /**
+     * 同一个key并发查数据库时只有一个线程去查，其他线程最多等这么久，超时报错
+     */
+    private Duration loadTimeout = Duration.ofSeconds(3);
+
+    /**
+     * 逻辑过期缓存的提前刷新（XFetch），key前缀 -> beta，beta 越大越早刷新，1 是常用值；没配置的前缀到期才重建。
+     * key前缀里有冒号，配置文件里要写成 "[cache:shop:]"
+     */
+    private Map<String, Double> earlyRefresh = new HashMap<>();
+
+    /**
+     * 逻辑过期缓存异步重建的线程池
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * Redis 前面的本地缓存（一级缓存）相关配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 防缓存穿透的布隆过滤器相关配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 热点key探测相关配置
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 缓存预热相关配置
+     */
+    private Warmup warmup = new Warmup();
+
+    /**
+     * 数据修改后删除缓存相关配置
+     */
+    private Invalidation invalidation = new Invalidation();
+
+    @Data
+    public static class Local {
+        /**
+         * 开启后查询先走本节点内存里的缓存，命中就不再访问 Redis、也不用反序列化
+         */
+        private boolean enabled = false;
+        /**
+         * 最多缓存的key个数，超过后淘汰最久没访问的
+         */
+        private int maximumSize = 10000;
+        /**
+         * 本地缓存的有效期，数据修改后其他节点最多这么久才能看到（正常情况下会收到失效通知立即删除）
+         */
+        private Duration ttl = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建线程数
+         */
+        private int threads = 10;
+        /**
+         * 排队等待重建的任务上限，满了就不重建，继续返回旧数据
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 每个key前缀同时重建的任务数上限，多出来的排队，一个前缀的重建再多也不会占满线程
+         */
+        private int maxPerPrefix = 5;
+        /**
+         * 单独配置某些前缀的上限，key前缀 -> 上限，配置文件里写成 "[cache:shop:]"
+         */
+        private Map<String, Integer> prefixLimits = new HashMap<>();
+        /**
+         * 关闭时等已经提交的重建任务执行完的最长时间
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 开启后注册了布隆过滤器的key前缀，查询前先判断id是否可能存在，一定不存在的直接返回，不访问 Redis 和数据库
+         */
+        private boolean enabled = false;
+        /**
+         * 每个过滤器预计的元素个数
+         */
+        private long expectedInsertions = 1_000_000;
+        /**
+         * 期望的误判率，误判的请求照常走 Redis 和数据库
+         */
+        private double fpp = 0.01;
+        /**
+         * 每个过滤器位数组最多占用的内存，按预计个数和误判率算出来超过这个值时以它为准
+         */
+        private DataSize maxMemory = DataSize.ofMegabytes(16);
+        /**
+         * 定时从数据库重建的间隔，清掉已删除的数据，也补上丢失的新增通知
+         */
+        private Duration rebuildInterval = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 开启后统计每个key的访问次数，热点key在本节点内存里放一份短期副本，查询不再访问 Redis
+         */
+        private boolean enabled = false;
+        /**
+         * 统计访问次数的滑动窗口
+         */
+        private Duration window = Duration.ofSeconds(10);
+        /**
+         * 一个窗口内访问次数达到这个值的key提升为热点，降到一半以下时降级
+         */
+        private long threshold = 1000;
+        /**
+         * 采样率，每 sampleRate 次访问随机记一次，次数按比例放大；1 表示每次都记。
+         * 每次都记的话所有查询都要去改同一组 Sketch 计数器，热点key上的争用反而最重；采样后只有少数访问写计数器，
+         * 估计值有误差，阈值要远大于采样率（比如阈值1000、采样率32，约31次抽中就提升）
+         */
+        private int sampleRate = 32;
+        /**
+         * 管理接口展示的访问次数最多的key个数
+         */
+        private int topK = 20;
+        /**
+         * Count-Min Sketch 每行的计数器个数，越大估计越准
+         */
+        private int sketchWidth = 2048;
+        /**
+         * Count-Min Sketch 的行数（哈希函数个数）
+         */
+        private int sketchDepth = 4;
+        /**
+         * 热点副本最多缓存的key个数
+         */
+        private int replicaSize = 256;
+        /**
+         * 热点副本的有效期，数据修改后失效通知丢失时最多这么久是旧数据
+         */
+        private Duration replicaTtl = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class Warmup {
+        /**
+         * 启动完成后自动预热所有注册过的key前缀
+         */
+        private boolean onStartup = false;
+        /**
+         * 编码和写 Redis 的线程数，每个线程一次处理一页
+         */
+        private int threads = 4;
+        /**
+         * 每页从数据库查的条数，也是一个 pipeline 写入的key个数
+         */
+        private int pageSize = 500;
+        /**
+         * 逻辑过期时间随机增加的最大比例，避免预热的key同时过期、同时重建
+         */
+        private double jitter = 0.2;
+    }
+
+    @Data
+    public static class Invalidation {
+        /**
+         * 用 UNLINK 代替 DEL，在 Redis 后台线程释放内存
+         */
+        private boolean unlink = true;
+        /**
+         * 一次批量删除的key个数上限
+         */
+        private int batchSize = 500;
+        /**
+         * 延迟双删：第一次删除后隔多久再删一次，0 表示不删第二次
+         */
+        private Duration delayedDelete = Duration.ZERO;
+        /**
+         * 删除失败后的重试间隔
+         */
+        private Duration retryInterval = Duration.ofSeconds(1);
+        /**
+         * 最多重试次数，超过后放弃，等缓存过期
+         */
+        private int maxAttempts = 5;
+        /**
+         * 等待重试的key个数上限
+         */
+        private int retryQueueCapacity = 10000;
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 全局id生成器相关的可调参数，对应配置文件里 hmdp.id 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdWorkerProperties {
+
+    /**
+     * id生成方式：redis 用 Redis 里按天的计数器做序列号，snowflake 只在启动时去 Redis 租一个机器号，本地生成
+     */
+    private String mode = "redis";
+
+    /**
+     * redis 方式的号段模式相关配置
+     */
+    private Segment segment = new Segment();
+
+    /**
+     * snowflake 方式相关配置
+     */
+    private Snowflake snowflake = new Snowflake();
+
+    @Data
+    public static class Segment {
+        /**
+         * 一次 INCRBY 预留一段序列号，在本地内存里分配，不用每个id都访问一次 Redis；关闭则每个id执行一次 INCR
+         */
+        private boolean enabled = false;
+        /**
+         * 每次预留的序列号个数
+         */
+        private int step = 1000;
+        /**
+         * 当前号段用掉这个比例后，异步预取下一个号段
+         */
+        private double prefetchRatio = 0.8;
+    }
+
+    @Data
+    public static class Snowflake {
+        /**
+         * 机器号租约的有效期，节点宕机后过这么久机器号才能被其他节点使用
+         */
+        private Duration leaseTtl = Duration.ofSeconds(30);
+        /**
+         * 租约续期的间隔，要比有效期短得多，续期失败几次也不至于过期
+         */
+        private Duration renewInterval = Duration.ofSeconds(10);
+        /**
+         * 时钟回拨不超过这个时长就等时钟追上来，超过则直接报错，不生成id
+         */
+        private Duration maxBackward = Duration.ofMillis(10);
+    }
+}
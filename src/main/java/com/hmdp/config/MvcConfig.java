@@ -1,7 +1,10 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -15,8 +18,22 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private AdminProperties adminProperties;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // 秒杀准入拦截器，排在最前面，多余的秒杀请求在查询登录用户之前就拒绝
+        if (seckillProperties.getAdmission().isEnabled()) {
+            registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                    .addPathPatterns("/voucher-order/seckill/**").order(-1);
+        }
         // token刷新的拦截器，只负责获取、查询、更新 token，实际上不进行拦截
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
         // 登录验证拦截器，这个拦截器负责拦截
@@ -30,5 +47,7 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        // 管理接口只允许配置的管理员调用
+        registry.addInterceptor(new AdminInterceptor(adminProperties)).addPathPatterns("/admin/**").order(2);
     }
 }
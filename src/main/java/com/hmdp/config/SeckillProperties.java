@@ -0,0 +1,209 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 秒杀相关的可调参数，对应配置文件里 hmdp.seckill 下的配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 本节点售罄标记的有效期，过期后放一个请求去 Redis 重新判断库存
+     */
+    private Duration soldOutTtl = Duration.ofSeconds(10);
+
+    /**
+     * Redis 里没有时间窗口的券（老的券、不存在的券），本节点记一个"没有窗口"标记的有效期，期间不再去 Redis 读
+     */
+    private Duration windowMissTtl = Duration.ofSeconds(10);
+
+    /**
+     * 新建秒杀券时库存拆成的分片数，1 表示不分片，只用一个 seckill:stock:{id} 库存key。
+     * 分片数在建券时写入 Redis，之后修改只影响新建的券。
+     * 下单脚本同时写库存分片、订单消息队列和订单状态，这些key不在同一个 slot，分片后也只能用单个 Redis 节点，不支持 Redis Cluster
+     */
+    private int stockShards = 1;
+
+    /**
+     * 秒杀请求准入（限流）相关配置
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * 秒杀预热相关配置
+     */
+    private Preheat preheat = new Preheat();
+
+    /**
+     * 本节点库存租约相关配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 订单消息队列（stream.orders）消费相关配置
+     */
+    private Order order = new Order();
+
+    /**
+     * 数据库不可用时订单写入本地日志（order journal）相关配置
+     */
+    private Journal journal = new Journal();
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否开启准入控制：每张券一个令牌桶，超出的请求在登录校验之前直接拒绝
+         */
+        private boolean enabled = false;
+        /**
+         * 每秒放行的请求数 = 剩余库存 × 这个倍数，留出重复下单、并发失败的余量
+         */
+        private double stockFactor = 3;
+        /**
+         * 每秒最少放行的请求数，库存为0或者还没采样到时也放一点请求去做准确判断
+         */
+        private double minRate = 5;
+        /**
+         * 令牌桶能攒下的突发量，按几秒的放行量计算
+         */
+        private double burstSeconds = 1;
+        /**
+         * 重新采样剩余库存、调整放行速率的间隔
+         */
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        /**
+         * 是否再经过一个 Redis 上的全局令牌桶，多节点时控制整个集群的放行量；本地令牌桶按单节点放行量限制
+         */
+        private boolean globalEnabled = false;
+    }
+
+    @Data
+    public static class Preheat {
+        /**
+         * 提前多久把即将开始的秒杀的库存、时间窗口加载到 Redis 和本地
+         */
+        private Duration ahead = Duration.ofMinutes(10);
+        /**
+         * 预热任务的执行间隔
+         */
+        private Duration interval = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Lease {
+        /**
+         * 是否开启库存租约：本节点一次从 Redis 租一批库存放在内存里扣，请求线程不再逐个去 Redis 判断库存
+         */
+        private boolean enabled = false;
+        /**
+         * 每次租的库存数
+         */
+        private int chunk = 50;
+        /**
+         * 本地剩余库存低于这个数时，后台提前续租一批
+         */
+        private int refillThreshold = 10;
+        /**
+         * 租到的库存超过这个时长没有被扣减（比如秒杀结束了），就还回 Redis
+         */
+        private Duration idleReturn = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Order {
+        /**
+         * 本节点是否消费订单消息队列，关闭后只接收秒杀请求、写入队列，由其他节点落库
+         */
+        private boolean consumerEnabled = true;
+        /**
+         * 每次 XREADGROUP 最多读取的消息条数，大于1时按批次扣库存、批量插入订单
+         */
+        private int batchSize = 100;
+        /**
+         * 订单落库时不加锁、不先查重，直接插入不存在的订单，重复的由主键和 (user_id, voucher_id) 唯一约束跳过，
+         * 消息重放不会重复扣库存。需要先执行 db/tb_voucher_order_unique.sql；关闭则走加锁、查重的老流程
+         */
+        private boolean idempotentInsert = true;
+        /**
+         * 凑够一批的最长等待时间，从读到这一批第一条消息开始计时
+         */
+        private Duration maxWait = Duration.ofMillis(200);
+        /**
+         * 消息队列分区数，订单按 voucherId 取模写入 stream.orders:{0..N-1}
+         */
+        private int partitions = 4;
+        /**
+         * 每个分区的消费线程数，每个线程是消费者组里一个独立的消费者
+         */
+        private int workersPerPartition = 1;
+        /**
+         * 本节点的消费者名前缀，不配置则用 主机名:端口
+         */
+        private String consumerName;
+        /**
+         * 其他消费者空闲超过这个时长，就认领它名下已读未确认的消息
+         */
+        private Duration claimMinIdle = Duration.ofMinutes(1);
+        /**
+         * 检查、认领空闲消息的间隔
+         */
+        private Duration claimInterval = Duration.ofSeconds(30);
+        /**
+         * 一条消息投递超过这个次数仍然处理失败（数据库不可用这类暂时性故障不算），就转入死信队列
+         */
+        private int maxDeliveries = 5;
+        /**
+         * 裁剪已确认消息的间隔
+         */
+        private Duration trimInterval = Duration.ofMinutes(1);
+        /**
+         * 队列长度、pending数等指标的采样间隔
+         */
+        private Duration metricsInterval = Duration.ofSeconds(5);
+        /**
+         * Redis 里订单状态（排队中、已创建、失败）的有效期，过期后只能去查订单本身
+         */
+        private Duration statusTtl = Duration.ofMinutes(30);
+        /**
+         * 长轮询查询订单状态时最多等待的时长
+         */
+        private Duration statusMaxWait = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Journal {
+        /**
+         * 数据库暂时不可用时，消费者把订单追加到本地日志后确认消息，不让 stream 在 Redis 里越积越多，数据库恢复后再回放落库。
+         * 回放走插入去重，需要先执行 db/tb_voucher_order_unique.sql
+         */
+        private boolean enabled = false;
+        /**
+         * 日志目录，每个节点一个，不能多个节点共用
+         */
+        private String dir = "data/order-journal";
+        /**
+         * 单个日志段文件的大小，写满后切换到下一个段
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        /**
+         * 最多保留的日志段数，未回放的段达到上限后不再写日志，消息留在 pending-list 里等数据库恢复
+         */
+        private int maxSegments = 16;
+        /**
+         * 检查、回放日志的间隔
+         */
+        private Duration replayInterval = Duration.ofSeconds(5);
+        /**
+         * 回放时每批落库的订单数
+         */
+        private int replayBatchSize = 500;
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存管理，只有 hmdp.admin.user-ids 里配置的管理员能调用
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    // 当前访问次数最多的key，以及是否已经提升为热点
+    @GetMapping("hot-keys")
+    public Result hotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    // 异步预热缓存，不传前缀时预热所有注册过的
+    @PostMapping("warmup")
+    public Result warmUp(@RequestParam(value = "keyPrefix", required = false) String keyPrefix) {
+        try {
+            return Result.ok(cacheWarmer.warmUp(keyPrefix));
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+    }
+
+    // 预热进度
+    @GetMapping("warmup")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmer.progress());
+    }
+}
@@ -45,6 +45,20 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 查询优惠券
+     * @param id 优惠券id
+     * @return 优惠券信息，不含秒杀库存和时间
+     */
+    @GetMapping("/{id}")
+    public Result queryVoucherById(@PathVariable("id") Long id) {
+        Voucher voucher = voucherService.getVoucherById(id);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在");
+        }
+        return Result.ok(voucher);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,13 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -29,4 +32,16 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    @GetMapping("{id}/status")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    // 长轮询：订单还在排队时最多等待 timeout 秒，状态变化后立即返回
+    @GetMapping("{id}/status/wait")
+    public DeferredResult<Result> awaitOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "timeout", required = false) Long timeout) {
+        return voucherOrderService.awaitOrderStatus(orderId, timeout);
+    }
 }
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    private String key;
+    // 滑动窗口内估计的访问次数
+    private Long count;
+    // 是否已经提升到本地的热点副本
+    private Boolean hot;
+}
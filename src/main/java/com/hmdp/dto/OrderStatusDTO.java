@@ -0,0 +1,13 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class OrderStatusDTO {
+    private Long orderId;
+    private Long voucherId;
+    // QUEUED 排队中，CREATED 已创建，FAILED 失败
+    private String status;
+    // 失败原因
+    private String reason;
+}
@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class WarmupProgressDTO {
+    private String keyPrefix;
+    // running / done / failed
+    private String status;
+    // 已经写进 Redis 的key个数
+    private Long written;
+    // 已经从数据库查出的页数
+    private Long pages;
+    private Long startTime;
+    // 已经用了多久，结束的是总耗时
+    private Long elapsedMillis;
+    // 平均每秒写入的key个数
+    private Long perSecond;
+    // 失败原因
+    private String error;
+}
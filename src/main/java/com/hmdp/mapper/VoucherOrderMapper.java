@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -12,5 +15,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  * @since 2022-05-22
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
+    int insertBatch(@Param("list") List<VoucherOrder> list);
 
+    int insertBatchIfAbsent(@Param("list") List<VoucherOrder> list);
 }
@@ -16,6 +16,8 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(Long id);
 
+    Blog getBlogById(Long id);
+
     Result queryHotBlog(Integer current);
 
     Result likeBlog(Long id);
@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -15,4 +18,18 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
+
+    Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    Result createVoucherOrderWithLock(VoucherOrder voucherOrder);
+
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    void insertVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    List<VoucherOrder> insertVoucherOrdersIfAbsent(List<VoucherOrder> voucherOrders);
+
+    Result queryOrderStatus(Long orderId);
+
+    DeferredResult<Result> awaitOrderStatus(Long orderId, Long timeoutSeconds);
 }
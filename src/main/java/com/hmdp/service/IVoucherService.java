@@ -16,6 +16,10 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    Voucher getVoucherById(Long id);
+
     void addSeckillVoucher(Voucher voucher);
 
+    Result addSeckillStock(Long voucherId, Integer count);
+
 }
@@ -9,13 +9,15 @@ import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmCacheEvict;
+import com.hmdp.utils.HmCached;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -28,6 +30,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -69,11 +72,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 1.查询blog，走代理才有缓存
+        IBlogService proxy = (IBlogService) AopContext.currentProxy();
+        Blog cached = proxy.getBlogById(id);
+        if (cached == null) {
             return Result.fail("笔记不存在！");
         }
+        // 下面要填用户和点赞信息，不能改缓存里的对象
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         // 2.查询blog有关的用户
         queryBlogUser(blog);
         // 3.查询blog是否被点赞
@@ -83,6 +89,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
 
     @Override
+    @HmCached(prefix = CACHE_BLOG_KEY, ttl = 30)
+    public Blog getBlogById(Long id) {
+        return getById(id);
+    }
+
+    // 点赞数变了，删除笔记缓存
+    @Override
+    @HmCacheEvict(prefix = CACHE_BLOG_KEY)
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
@@ -206,7 +220,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.getUserDTOById(userId);
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -0,0 +1,172 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OrderJournal;
+import com.hmdp.utils.SeckillOrderStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.service.impl.VoucherOrderConsumer.CONSUMED_METRIC;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+
+/**
+ * 把本地订单日志里的订单回放到数据库
+ * <p>
+ * 定时检查日志，有没回放的订单就按批插入去重落库，落库后推进回放进度；数据库还没恢复就等下一轮。
+ * 一批里有问题的订单退回逐条处理，库存不足、重复下单标记订单失败，其他异常转入死信队列
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.seckill.journal", name = "enabled", havingValue = "true")
+public class OrderJournalReplayer {
+
+    @Resource
+    private OrderJournal orderJournal;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private ScheduledExecutorService executor;
+
+    private Counter consumedCounter;
+
+    @PostConstruct
+    private void init() {
+        consumedCounter = meterRegistry.counter(CONSUMED_METRIC);
+        long interval = seckillProperties.getJournal().getReplayInterval().toMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-order-journal-", true));
+        executor.scheduleWithFixedDelay(this::replay, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 不能中断回放线程，被中断的线程读写文件时 FileChannel 会被关闭
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    // 一直回放到日志读空，或者数据库还没恢复为止
+    public void replay() {
+        int batchSize = Math.max(seckillProperties.getJournal().getReplayBatchSize(), 1);
+        try {
+            while (orderJournal.hasBacklog()) {
+                // 1.从回放进度开始读一批
+                List<VoucherOrder> orders = orderJournal.read(batchSize);
+                if (orders.isEmpty()) {
+                    break;
+                }
+                // 2.落库，数据库不可用时抛出异常，不推进进度，下一轮从同一批开始重放
+                replayBatch(orders);
+                // 3.推进回放进度
+                orderJournal.commit();
+            }
+        } catch (Exception e) {
+            if (VoucherOrderConsumer.isTransient(e)) {
+                log.warn("数据库暂不可用，{} 条订单留在本地日志里等待回放: {}", orderJournal.backlog(), e.getMessage());
+            } else {
+                log.error("回放订单日志异常", e);
+            }
+        }
+    }
+
+    private void replayBatch(List<VoucherOrder> orders) {
+        // 1.整批插入去重，已经落库的订单直接跳过
+        try {
+            List<VoucherOrder> rejected = voucherOrderService.insertVoucherOrdersIfAbsent(orders);
+            finish(orders, rejected);
+            return;
+        } catch (Exception e) {
+            if (VoucherOrderConsumer.isTransient(e)) {
+                throw e;
+            }
+            // 整批事务已回滚，可能是某张券库存不足，退回逐条处理
+            log.error("批量回放订单失败，退回逐条处理", e);
+        }
+        // 2.逐条处理
+        for (VoucherOrder order : orders) {
+            List<VoucherOrder> single = Collections.singletonList(order);
+            try {
+                finish(single, voucherOrderService.insertVoucherOrdersIfAbsent(single));
+            } catch (IllegalStateException e) {
+                // 扣减库存失败
+                updateStatus(single, "库存不足");
+            } catch (Exception e) {
+                if (VoucherOrderConsumer.isTransient(e)) {
+                    throw e;
+                }
+                deadLetter(order, e);
+            }
+        }
+    }
+
+    private void finish(List<VoucherOrder> orders, List<VoucherOrder> rejected) {
+        List<VoucherOrder> created = new ArrayList<>(orders);
+        created.removeAll(rejected);
+        consumedCounter.increment(created.size());
+        updateStatus(created, null);
+        // 同一用户已经有其他订单
+        updateStatus(rejected, "不允许重复下单");
+    }
+
+    // XADD stream.orders.dlq * 订单 + 来源、失败原因。写不进去就抛出异常，这一批不推进进度，下一轮重放
+    private void deadLetter(VoucherOrder order, Exception e) {
+        Map<String, String> body = new HashMap<>();
+        body.put("id", String.valueOf(order.getId()));
+        body.put("userId", String.valueOf(order.getUserId()));
+        body.put("voucherId", String.valueOf(order.getVoucherId()));
+        body.put("source", "journal");
+        body.put("error", StrUtil.maxLength(e.toString(), 500));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, body);
+        log.error("回放订单 {} 失败，转入死信队列", order.getId(), e);
+        updateStatus(Collections.singletonList(order), "订单处理失败");
+    }
+
+    // 订单状态只是给用户查询用的，写失败不影响回放进度
+    private void updateStatus(List<VoucherOrder> orders, String reason) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        try {
+            if (reason == null) {
+                seckillOrderStatus.markCreated(orders);
+            } else {
+                orders.forEach(order -> seckillOrderStatus.markFailed(order, reason));
+            }
+        } catch (Exception e) {
+            log.warn("更新订单状态失败", e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillWindowCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀预热
+ * <p>
+ * 每个节点定时从数据库查出进行中、以及在 ahead 时间内开始的秒杀券：<br>
+ * 1.还没开始、Redis 里又没有库存的（比如 Redis 数据丢了、直接在库里建的券），把数据库库存写进 Redis<br>
+ * 2.把时间窗口写进 Redis 和本地缓存，秒杀开始后的请求不用再回数据库查<br>
+ * 3.本地缓存里已经结束的券，归还本节点租到的库存，结束一段时间后从本地缓存移除
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillVoucherPreheater {
+
+    // 结束超过这个时长的券从本地窗口缓存移除
+    private static final long EVICT_AFTER_END_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-preheat-", true));
+        long interval = seckillProperties.getPreheat().getInterval().toMillis();
+        // 启动时马上执行一次，进行中的秒杀也要加载
+        executor.scheduleWithFixedDelay(this::preheat, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    public void preheat() {
+        // 1.已经结束的券
+        try {
+            seckillWindowCache.endedBefore(0).forEach(seckillStockLease::returnLease);
+            seckillWindowCache.endedBefore(EVICT_AFTER_END_MS).forEach(seckillWindowCache::remove);
+            seckillWindowCache.evictExpired();
+        } catch (Exception e) {
+            log.warn("归还已结束秒杀的库存租约失败", e);
+        }
+        // 2.进行中、即将开始的券
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers;
+        try {
+            vouchers = seckillVoucherService.query()
+                    .gt("end_time", now)
+                    .le("begin_time", now.plus(seckillProperties.getPreheat().getAhead()))
+                    .list();
+        } catch (Exception e) {
+            log.warn("查询待预热的秒杀券失败", e);
+            return;
+        }
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                preheat(voucher, now);
+            } catch (Exception e) {
+                log.warn("预热秒杀券失败, voucherId={}", voucher.getVoucherId(), e);
+            }
+        }
+    }
+
+    private void preheat(SeckillVoucher voucher, LocalDateTime now) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.还没开始的，Redis 里没有库存才写入；开始之后数据库库存是异步扣减的，不能再拿来覆盖 Redis
+        if (voucher.getBeginTime().isAfter(now) && seckillStockManager.preloadStock(voucherId, voucher.getStock())) {
+            log.info("预热秒杀库存 voucherId={} stock={}", voucherId, voucher.getStock());
+        }
+        // 2.时间窗口
+        long begin = LocalDateTimeUtil.toEpochMilli(voucher.getBeginTime());
+        long end = LocalDateTimeUtil.toEpochMilli(voucher.getEndTime());
+        seckillStockManager.saveWindow(voucherId, begin, end);
+        seckillWindowCache.put(voucherId, begin, end);
+    }
+}
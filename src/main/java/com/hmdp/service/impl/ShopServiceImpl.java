@@ -1,19 +1,21 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HmCached;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
@@ -35,6 +37,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @PostConstruct
+    private void init() {
+        // 店铺缓存的布隆过滤器，从 tb_shop 加载全部店铺id
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, () -> listObjs(new QueryWrapper<Shop>().select("id")));
+        // 店铺缓存预热，按id分页查 tb_shop，逻辑过期时间和 queryById 一样
+        cacheWarmer.register(CACHE_SHOP_KEY,
+                (lastId, limit) -> query().gt("id", lastId).orderByAsc("id").last("limit " + limit).list(),
+                Shop::getId, 20L, TimeUnit.SECONDS, HmCached.Strategy.LOGICAL_EXPIRE);
+    }
+
     @Override
     public Result queryById(Long id) {
         // 调用类内的方法 queryWithPassThrough 解决缓存穿透
@@ -68,20 +86,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1.更新数据库
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.事务提交后删除缓存，同时通知所有节点删除本地缓存；删除失败会重试
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.新店铺的id写入布隆过滤器，否则会被当成不存在的店铺
+        cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+        // 3.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     public void saveShop2Redis(Long id, Long expireSeconds) {
         // 1.查询店铺数据
         Shop shop = getById(id);
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        // 2.封装逻辑过期时间，写入redis，并通知所有节点删除本地缓存
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
     // 缓存空值解决缓存穿透的问题，封装到了缓存工具类里
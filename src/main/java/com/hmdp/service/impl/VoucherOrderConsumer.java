@@ -0,0 +1,533 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OrderJournal;
+import com.hmdp.utils.SeckillOrderStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LEGACY_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+
+/**
+ * 秒杀订单消息队列的消费者
+ * <p>
+ * 订单按 voucherId 分散到 N 个分区 stream.orders:{0..N-1}，每个分区开若干个工作线程，每个线程都是消费者组 g1 里
+ * 一个独立的消费者，名字为 节点名-分区-线程序号。节点宕机后它名下已读未确认的消息，由其他节点定时认领（XCLAIM）后重新处理。
+ * 消息本身有问题、投递多次仍处理失败的，转入死信队列 stream.orders.dlq。
+ * 升级前的版本只有一个队列 stream.orders，启动时如果它还在，单开一个线程把里面遗留的消息处理完
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.seckill.order", name = "consumer-enabled", havingValue = "true", matchIfMissing = true)
+public class VoucherOrderConsumer {
+
+    public static final String GROUP = "g1";
+
+    // 成功落库的订单数，VoucherOrderStreamMonitor 据此算消费速率
+    public static final String CONSUMED_METRIC = "seckill.order.consumed";
+
+    // pending-list 重试的退避时间范围
+    private static final long MIN_RETRY_BACKOFF_MS = 500;
+    private static final long MAX_RETRY_BACKOFF_MS = 30_000;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private OrderJournal orderJournal;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private final List<List<VoucherOrderHandler>> handlers = new ArrayList<>();
+
+    private final Set<String> consumerNames = new HashSet<>();
+
+    private String nodeName;
+
+    private ExecutorService orderExecutor;
+
+    private ScheduledExecutorService claimExecutor;
+
+    private volatile boolean running = true;
+
+    private Counter consumedCounter;
+
+    private Counter deadLetterCounter;
+
+    public static String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + partition;
+    }
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Order props = seckillProperties.getOrder();
+        consumedCounter = meterRegistry.counter(CONSUMED_METRIC);
+        deadLetterCounter = meterRegistry.counter("seckill.order.dead.letter");
+        // 1.节点名：没配置就用 主机名:端口，同一台机器上跑多个实例也不会重名，重启后还能接着处理自己名下的pending-list
+        nodeName = StrUtil.isNotBlank(props.getConsumerName())
+                ? props.getConsumerName() : NetUtil.getLocalHostName() + ":" + serverPort;
+        int partitions = props.getPartitions();
+        int workers = props.getWorkersPerPartition();
+        // 多留一个线程给旧队列，没有旧队列时不会创建
+        orderExecutor = Executors.newFixedThreadPool(partitions * workers + 1, new NamedThreadFactory("seckill-order-", false));
+        for (int p = 0; p < partitions; p++) {
+            // 2.启动时自动创建消费者组
+            String key = streamKey(p);
+            createGroupIfAbsent(key);
+            // 3.每个分区开 workers 个消费者
+            List<VoucherOrderHandler> partitionHandlers = new ArrayList<>(workers);
+            for (int w = 0; w < workers; w++) {
+                VoucherOrderHandler handler = new VoucherOrderHandler(key, nodeName + "-" + p + "-" + w);
+                partitionHandlers.add(handler);
+                consumerNames.add(handler.consumer.getName());
+                orderExecutor.submit(handler);
+            }
+            handlers.add(partitionHandlers);
+        }
+        // 4.定时认领其他消费者（多半是宕机的节点）遗留的消息
+        long interval = props.getClaimInterval().toMillis();
+        claimExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-order-claim-", true));
+        claimExecutor.scheduleWithFixedDelay(this::claimIdlePending, interval, interval, TimeUnit.MILLISECONDS);
+        // 5.旧版本的单个队列里还有消息，这些订单Redis里已经扣了库存、记了下单用户，必须落库
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_ORDER_LEGACY_STREAM_KEY))) {
+            orderExecutor.submit(this::drainLegacyStream);
+        }
+    }
+
+    // 处理旧队列 stream.orders 里遗留的消息，包括旧版本节点名下已读未确认的，处理完就结束
+    private void drainLegacyStream() {
+        createGroupIfAbsent(SECKILL_ORDER_LEGACY_STREAM_KEY);
+        new VoucherOrderHandler(SECKILL_ORDER_LEGACY_STREAM_KEY, nodeName + "-legacy").drain();
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 工作线程每轮最多阻塞2s，停止标记生效后自然退出，没确认的消息留在pending-list里，下次启动或被其他节点认领后处理
+        running = false;
+        claimExecutor.shutdownNow();
+        orderExecutor.shutdown();
+        orderExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void createGroupIfAbsent(String key) {
+        try {
+            // XGROUP CREATE stream.orders:p g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key.getBytes(StandardCharsets.UTF_8), GROUP, ReadOffset.from("0"), true));
+            log.info("创建消费者组 {} {}", key, GROUP);
+        } catch (Exception e) {
+            // 组已经存在时 Redis 返回 BUSYGROUP，属于正常情况
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    // 把其他消费者名下空闲太久的消息认领到本节点该分区的某个消费者名下，再由它从自己的pending-list里处理
+    private void claimIdlePending() {
+        Duration minIdle = seckillProperties.getOrder().getClaimMinIdle();
+        for (int p = 0; p < handlers.size(); p++) {
+            String key = streamKey(p);
+            try {
+                // 1.XINFO CONSUMERS stream.orders:p g1，找出不是本节点、且空闲超过 minIdle 的消费者
+                StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(key, GROUP);
+                for (int i = 0; i < consumers.size(); i++) {
+                    StreamInfo.XInfoConsumer c = consumers.get(i);
+                    if (consumerNames.contains(c.consumerName()) || c.idleTimeMs() < minIdle.toMillis()) {
+                        continue;
+                    }
+                    if (c.pendingCount() == 0) {
+                        // 2.没有遗留消息的失效消费者直接删掉，避免重启换了名字后组里的消费者越积越多
+                        stringRedisTemplate.opsForStream().deleteConsumer(key, Consumer.from(GROUP, c.consumerName()));
+                        continue;
+                    }
+                    // 3.XPENDING 查出它名下的消息，XCLAIM 给本节点随机一个消费者
+                    PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                            key, Consumer.from(GROUP, c.consumerName()), Range.unbounded(), seckillProperties.getOrder().getBatchSize());
+                    List<RecordId> ids = pending.stream().map(PendingMessage::getId).collect(Collectors.toList());
+                    if (ids.isEmpty()) {
+                        continue;
+                    }
+                    List<VoucherOrderHandler> partitionHandlers = handlers.get(p);
+                    VoucherOrderHandler handler = partitionHandlers.get(ThreadLocalRandom.current().nextInt(partitionHandlers.size()));
+                    int claimed = claim(key, handler.consumer.getName(), minIdle, ids);
+                    if (claimed > 0) {
+                        log.info("从消费者 {} 认领 {} 条订单消息到 {}", c.consumerName(), claimed, handler.consumer.getName());
+                        handler.hasClaimed = true;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("认领pending消息异常, stream={}", key, e);
+            }
+        }
+    }
+
+    // XCLAIM key g1 consumerName minIdle id1 id2 ...，返回认领到的条数。
+    // Lettuce 不支持 XCLAIM ... JUSTID，这里认领后返回的消息体直接丢掉，由消费者从pending-list重新读取
+    private int claim(String key, String consumerName, Duration minIdle, List<RecordId> ids) {
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.streamCommands()
+                .xClaim(key.getBytes(StandardCharsets.UTF_8), GROUP, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+        return claimed == null ? 0 : claimed.size();
+    }
+
+    // 创建单独线程要执行的任务
+    private class VoucherOrderHandler implements Runnable {
+
+        private final String streamKey;
+
+        private final Consumer consumer;
+
+        // 认领到了别人的消息后置为true，提醒当前线程去处理自己的pending-list。初始为true，启动时先处理上次遗留的消息
+        private volatile boolean hasClaimed = true;
+
+        VoucherOrderHandler(String streamKey, String consumerName) {
+            this.streamKey = streamKey;
+            this.consumer = Consumer.from(GROUP, consumerName);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (hasClaimed) {
+                        hasClaimed = false;
+                        handlePendingList();
+                    }
+                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 consumer COUNT n BLOCK 2000 STREAMS stream.orders:p >
+                    // 一次最多读 batchSize 条，读到第一条后最多再等 maxWait 把这一批凑满
+                    List<MapRecord<String, Object, Object>> list = readBatch();
+                    // 2.判断消息获取是否成功，即订单信息是否为空
+                    if (list.isEmpty()) {
+                        // 如果为空，说明没有消息，继续下一次循环
+                        continue;
+                    }
+                    // 3.创建订单，有消息没处理掉（留在了pending-list里）就转去处理pending-list
+                    if (!handleOrders(list)) {
+                        handlePendingList();
+                    }
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    // 4.死循环在正常情况下读取下一个未消费的消息，出现异常（即消息处理完之后没有返回ACK确认）那就再来一个死循环
+                    // 去处理pending-list中已消费但未确认的消息，处理完了再回到正常流程的死循环
+                    handlePendingList();
+                }
+            }
+        }
+
+        // 排空旧队列：先处理自己名下的，再读还没投递的，最后认领旧版本节点名下空闲的消息，直到整个组没有未确认的消息
+        void drain() {
+            log.info("开始处理旧订单队列 {} 里遗留的消息", streamKey);
+            int batchSize = seckillProperties.getOrder().getBatchSize();
+            Duration minIdle = seckillProperties.getOrder().getClaimMinIdle();
+            while (running) {
+                try {
+                    // 1.自己名下的pending-list，处理不掉的会退避重试，处理完才返回
+                    handlePendingList();
+                    // 2.还没投递的消息，不阻塞
+                    List<MapRecord<String, Object, Object>> list = read(StreamReadOptions.empty().count(batchSize), ReadOffset.lastConsumed());
+                    if (list != null && !list.isEmpty()) {
+                        handleOrders(list);
+                        continue;
+                    }
+                    // 3.XPENDING stream.orders g1，组里没有未确认的消息就结束
+                    PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, GROUP);
+                    if (summary == null || summary.getTotalPendingMessages() == 0) {
+                        log.info("旧订单队列 {} 已处理完", streamKey);
+                        return;
+                    }
+                    // 4.其他消费者名下空闲超过 minIdle 的认领过来，下一轮处理；都还没空闲够就等一会
+                    PendingMessages pending = stringRedisTemplate.opsForStream().pending(streamKey, GROUP, Range.unbounded(), batchSize);
+                    List<RecordId> ids = pending.stream()
+                            .filter(m -> !consumer.getName().equals(m.getConsumerName()) && m.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                            .map(PendingMessage::getId).collect(Collectors.toList());
+                    if (ids.isEmpty() || claim(streamKey, consumer.getName(), minIdle, ids) == 0) {
+                        ThreadUtil.sleep(1000);
+                    }
+                } catch (Exception e) {
+                    log.error("处理旧订单队列异常", e);
+                    ThreadUtil.sleep(1000);
+                }
+            }
+        }
+
+        // 流程和上面类似。处理不掉的消息留在pending-list里，退避一段时间后再重试，不在原地死循环
+        private void handlePendingList() {
+            long backoff = MIN_RETRY_BACKOFF_MS;
+            while (running) {
+                try {
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 consumer COUNT n STREAMS stream.orders:p 0
+                    List<MapRecord<String, Object, Object>> list = read(
+                            StreamReadOptions.empty().count(seckillProperties.getOrder().getBatchSize()), // 读 PendingList 不用阻塞
+                            ReadOffset.from("0") // 读 PendingList 一定读已读未完成的消息
+                    );
+                    // 2.判断订单信息是否为空
+                    if (list == null || list.isEmpty()) {
+                        // 如果为null，说明没有异常消息，结束循环
+                        break;
+                    }
+                    // 3.创建订单，这一批都确认掉了就接着读下一批
+                    if (handleOrders(list)) {
+                        backoff = MIN_RETRY_BACKOFF_MS;
+                        continue;
+                    }
+                } catch (Exception e) {
+                    log.error("处理PendingList订单异常", e);
+                }
+                // 4.还有消息没处理掉，比如数据库暂时不可用，等一会再重试，等待时间逐次翻倍
+                ThreadUtil.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MS);
+            }
+        }
+
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            int batchSize = Math.max(seckillProperties.getOrder().getBatchSize(), 1);
+            // 1.先阻塞2s等第一批消息
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            if (!readInto(batch, batchSize, Duration.ofSeconds(2))) {
+                return batch;
+            }
+            // 2.拿到消息后，在 maxWait 内继续读，直到凑满一批。BLOCK 0 表示永久阻塞，所以剩余时间不足1ms就直接结束
+            long deadline = System.currentTimeMillis() + seckillProperties.getOrder().getMaxWait().toMillis();
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !readInto(batch, batchSize - batch.size(), Duration.ofMillis(remaining))) {
+                    break;
+                }
+            }
+            return batch;
+        }
+
+        private boolean readInto(List<MapRecord<String, Object, Object>> batch, int count, Duration block) {
+            List<MapRecord<String, Object, Object>> list = read(
+                    StreamReadOptions.empty().count(count).block(block),  // 最多读count条消息，阻塞block时长
+                    ReadOffset.lastConsumed()  // 读取最新一条未处理的
+            );
+            if (list == null || list.isEmpty()) {
+                return false;
+            }
+            batch.addAll(list);
+            return true;
+        }
+
+        // XREADGROUP 本消费者读本分区。read 的参数是泛型 varargs，只读一个 stream 时数组在这里创建，不会有类型问题
+        @SuppressWarnings("unchecked")
+        private List<MapRecord<String, Object, Object>> read(StreamReadOptions options, ReadOffset offset) {
+            return stringRedisTemplate.opsForStream().read(consumer, options, StreamOffset.create(streamKey, offset));
+        }
+
+        // 返回 true 表示这一批消息都已确认（落库成功或转入了死信队列）
+        private boolean handleOrders(List<MapRecord<String, Object, Object>> list) {
+            // 0.本地日志里还有没回放完的订单，说明数据库刚出过问题，新消息也先写日志，不再去等数据库超时
+            if (orderJournal.hasBacklog() && spill(list)) {
+                return true;
+            }
+            // 1.多条时先尝试一个事务内批量扣库存、批量插入
+            if (list.size() > 1) {
+                try {
+                    List<VoucherOrder> orders = list.stream().map(this::toVoucherOrder).collect(Collectors.toList());
+                    // 开启插入去重时，重放的订单直接跳过，返回的是同一用户已有其他订单、没有创建的订单
+                    List<VoucherOrder> rejected = voucherOrderService.createVoucherOrders(orders);
+                    acknowledge(list.stream().map(MapRecord::getId).collect(Collectors.toList()), list.size() - rejected.size());
+                    if (!rejected.isEmpty()) {
+                        orders.removeAll(rejected);
+                        rejected.forEach(order -> updateStatus(Collections.singletonList(order), "不允许重复下单"));
+                    }
+                    updateStatus(orders, null);
+                    return true;
+                } catch (Exception e) {
+                    // 数据库不可用时逐条处理也一样会失败，开启了本地日志就写入日志，否则直接抛出去，等退避后重试
+                    if (isTransient(e)) {
+                        if (spill(list)) {
+                            return true;
+                        }
+                        throw e;
+                    }
+                    // 整批事务已回滚，可能是重放时订单已存在、某张券库存不足或某条消息有问题，退回逐条处理，由逐条流程跳过有问题的订单
+                    log.error("批量创建订单失败，退回逐条处理", e);
+                }
+            }
+            // 2.逐条处理，处理成功的和转入死信队列的都要确认，出问题的消息不再拖累同一批里的其他消息
+            List<RecordId> done = new ArrayList<>(list.size());
+            List<VoucherOrder> created = new ArrayList<>(list.size());
+            try {
+                for (int i = 0; i < list.size(); i++) {
+                    MapRecord<String, Object, Object> record = list.get(i);
+                    try {
+                        VoucherOrder order = toVoucherOrder(record);
+                        Result result = voucherOrderService.createVoucherOrder(order);
+                        done.add(record.getId());
+                        if (result.getSuccess()) {
+                            created.add(order);
+                        } else {
+                            // 重复下单、库存不足这类业务失败，消息确认掉，订单状态标记为失败
+                            updateStatus(Collections.singletonList(order), result.getErrorMsg());
+                        }
+                    } catch (Exception e) {
+                        if (isTransient(e)) {
+                            // 剩下的消息写入本地日志
+                            if (spill(list.subList(i, list.size()))) {
+                                return true;
+                            }
+                            throw e;
+                        }
+                        if (deadLetterIfExhausted(record, e)) {
+                            done.add(record.getId());
+                        }
+                    }
+                }
+            } finally {
+                acknowledge(done, created.size());
+                updateStatus(created, null);
+            }
+            return done.size() == list.size();
+        }
+
+        // 把订单写入本地日志并确认消息，订单状态保持排队中，回放落库后再更新。返回 false 表示没开启日志、日志已满，或者有消息解析不出订单
+        private boolean spill(List<MapRecord<String, Object, Object>> list) {
+            if (!orderJournal.isEnabled()) {
+                return false;
+            }
+            List<VoucherOrder> orders = new ArrayList<>(list.size());
+            List<RecordId> ids = new ArrayList<>(list.size());
+            for (MapRecord<String, Object, Object> record : list) {
+                try {
+                    orders.add(toVoucherOrder(record));
+                    ids.add(record.getId());
+                } catch (Exception e) {
+                    // 解析不了的消息留在pending-list里，数据库恢复后按原流程转入死信队列
+                    log.warn("订单消息 {} {} 解析失败，不写入本地日志", streamKey, record.getId(), e);
+                }
+            }
+            if (!orderJournal.append(orders)) {
+                log.error("订单本地日志已满，{} 条消息留在pending-list里", list.size());
+                return false;
+            }
+            acknowledge(ids, 0);
+            return ids.size() == list.size();
+        }
+
+        // 更新 Redis 里的订单状态，reason 为 null 表示已创建。状态只是给用户查询用的，写失败不影响消息确认
+        private void updateStatus(List<VoucherOrder> orders, String reason) {
+            try {
+                if (reason == null) {
+                    seckillOrderStatus.markCreated(orders);
+                } else {
+                    orders.forEach(order -> seckillOrderStatus.markFailed(order, reason));
+                }
+            } catch (Exception e) {
+                log.warn("更新订单状态失败", e);
+            }
+        }
+
+        private VoucherOrder toVoucherOrder(MapRecord<String, Object, Object> record) {
+            // 消息的value就是lua脚本里写的键值对
+            Map<Object, Object> value = record.getValue();
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("订单消息内容为空");
+            }
+            return BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        }
+
+        // 确认消息 XACK stream.orders:p g1 id1 id2 ...
+        private void acknowledge(List<RecordId> ids, int created) {
+            if (ids.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, GROUP, ids.toArray(new RecordId[0]));
+            consumedCounter.increment(created);
+        }
+
+        // 消息本身有问题时，投递次数达到上限就转入死信队列，否则先留在pending-list里，下次重试
+        private boolean deadLetterIfExhausted(MapRecord<String, Object, Object> record, Exception e) {
+            String id = record.getId().getValue();
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(streamKey, consumer, Range.closed(id, id), 1);
+            long deliveries = pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+            if (deliveries < seckillProperties.getOrder().getMaxDeliveries()) {
+                log.warn("订单消息 {} {} 第 {} 次处理失败，稍后重试", streamKey, id, deliveries, e);
+                return false;
+            }
+            // XADD stream.orders.dlq * 原消息的键值对 + 来源、失败原因
+            Map<Object, Object> body = new HashMap<>();
+            if (record.getValue() != null) {
+                body.putAll(record.getValue());
+            }
+            body.put("source", streamKey);
+            body.put("sourceId", id);
+            body.put("deliveries", String.valueOf(deliveries));
+            body.put("error", StrUtil.maxLength(e.toString(), 500));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, body);
+            deadLetterCounter.increment();
+            // 消息还能解析出订单的，把订单状态标记为失败
+            VoucherOrder order = null;
+            try {
+                order = toVoucherOrder(record);
+            } catch (Exception ignored) {
+            }
+            if (order != null && order.getId() != null) {
+                updateStatus(Collections.singletonList(order), "订单处理失败");
+            }
+            log.error("订单消息 {} {} 投递 {} 次仍处理失败，转入死信队列", streamKey, id, deliveries, e);
+            return true;
+        }
+    }
+
+    // 数据库连不上、拿不到连接、开不了事务、锁超时这类故障和消息本身无关，只等待重试，不计入死信判断
+    static boolean isTransient(Throwable e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+}
@@ -1,30 +1,33 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillWindowCache;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -41,122 +44,130 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
-
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private IdWorker idWorker;
 
     @Resource
     private RedissonClient redissonClient;
 
-    // 静态代码块加载lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
-
-    // 创建线程池，这里只创建了一个单线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
 
-    // 单独线程应该一开始就执行任务，不断去消息队列里取。所以这里是写成类一初始化结束，就开启线程任务
-    // @PostConstruct注解是在当前类初始化完毕之后，立刻执行该方法
-    @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
+    @Resource
+    private SeckillStockManager seckillStockManager;
 
-    // 创建单独线程要执行的任务
-    private class VoucherOrderHandler implements Runnable{
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
 
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),  // 消费者组里的哪个消费者
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),  // 读1条消息，阻塞2s
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())  // 指定消息队列，以及是读取最新一条未处理的
-                    );
-                    // 2.判断消息获取是否成功，即订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-                    // 解析消息中的订单数据
-                    MapRecord<String, Object, Object> record = list.get(0); // 第一个string是消息id，后面两个是消息的内容，即lua脚本里写的键值对
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    // 5.死循环在正常情况下读取下一个未消费的消息，出现异常（即消息处理完之后没有返回ACK确认）那就再来一个死循环
-                    // 去处理pending-list中已消费但未确认的消息，处理完了再回到正常流程的死循环
-                    handlePendingList();
-                }
-            }
-        }
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
 
-        // 流程和上面类似
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1), // 读 PendingList 不用阻塞
-                            StreamOffset.create("stream.orders", ReadOffset.from("0")) // 读 PendingList 一定读已读未完成的消息
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有异常消息，结束循环
-                        break;
-                    }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理PendingList订单异常", e);
-                }
-            }
-        }
-    }
+    @Resource
+    private SeckillProperties seckillProperties;
 
+    // 订单消息队列的消费逻辑在 VoucherOrderConsumer 里
 
     // 先去redis里完成抢单
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0.本节点已标记售罄的券直接拒绝，不再分配订单id、也不再执行lua脚本
+        // 开启库存租约时，本节点手里还有租到的库存就继续卖，售罄标记可能是其他节点租不到库存报的
+        if (seckillSoldOutCache.isSoldOut(voucherId) && !seckillStockManager.hasLeasedStock(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 0.1.用本地缓存的时间窗口挡掉没开始、已结束的请求，准确的判断在lua脚本里
+        int w = seckillWindowCache.check(voucherId);
+        if (w != SeckillStockManager.OK) {
+            return windowFail(w);
+        }
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
-        // 1.执行lua脚本，使用的是stringRedisTemplate.execute()方法
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),  // 这里不用传redis的key，所以传一个空列表，不能传null
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)  // 这里传其他参数（即非key的参数），以字符串形式
-        );
-        int r = result.intValue(); // 转成int型
+        long orderId = idWorker.nextId("order");
+        // 1.执行lua脚本，库存分片时本分片不足会再去其他分片借库存
+        int r = seckillStockManager.seckill(voucherId, userId, orderId);
         // 2.判断结果是否为0
-        if (r != 0) {
+        if (r != SeckillStockManager.OK) {
             // 2.1.不为0 ，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            if (r == SeckillStockManager.SOLD_OUT) {
+                // 库存不足，标记售罄并通知其他节点
+                seckillSoldOutCache.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+            if (r == SeckillStockManager.DUPLICATE) {
+                return Result.fail("不能重复下单");
+            }
+            return windowFail(r);
         }
         // 3.返回订单id
         return Result.ok(orderId);
     }
 
+    // 查询订单状态，只读 Redis
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        return statusOf(orderId, UserHolder.getUser().getId());
+    }
 
-    // 从阻塞队列里获取订单，创建秒杀订单
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    // 长轮询订单状态：还在排队就挂起请求，状态变化或超时后返回
+    @Override
+    public DeferredResult<Result> awaitOrderStatus(Long orderId, Long timeoutSeconds) {
+        // 回调在其他线程里执行，先取出当前用户
+        Long userId = UserHolder.getUser().getId();
+        long maxWait = seckillProperties.getOrder().getStatusMaxWait().toMillis();
+        long timeout = timeoutSeconds == null ? maxWait : Math.min(Math.max(timeoutSeconds, 0) * 1000, maxWait);
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout);
+        Runnable waiter = () -> deferred.setResult(statusOf(orderId, userId));
+        deferred.onTimeout(waiter);
+        deferred.onCompletion(() -> seckillOrderStatus.removeWaiter(orderId, waiter));
+        // 先登记再查询，避免查询之后、登记之前状态变化的通知被错过
+        seckillOrderStatus.addWaiter(orderId, waiter);
+        Result current = statusOf(orderId, userId);
+        if (timeout == 0 || !current.getSuccess()
+                || !SeckillOrderStatus.QUEUED.equals(((OrderStatusDTO) current.getData()).getStatus())) {
+            deferred.setResult(current);
+        }
+        return deferred;
+    }
+
+    private Result statusOf(Long orderId, Long userId) {
+        Map<Object, Object> status = seckillOrderStatus.get(orderId);
+        // 只能查自己的订单
+        if (status.isEmpty() || !userId.toString().equals(status.get("userId"))) {
+            return Result.fail("订单状态不存在或已过期");
+        }
+        OrderStatusDTO dto = new OrderStatusDTO();
+        dto.setOrderId(orderId);
+        dto.setVoucherId(Long.valueOf(status.get("voucherId").toString()));
+        dto.setStatus((String) status.get("status"));
+        dto.setReason((String) status.get("reason"));
+        return Result.ok(dto);
+    }
+
+    private static Result windowFail(int r) {
+        return Result.fail(r == SeckillStockManager.NOT_STARTED ? "秒杀尚未开始！" : "秒杀已经结束！");
+    }
+
+
+    // 从消息队列里获取订单，创建秒杀订单，失败时返回原因，由消费者写入订单状态
+    // 按配置走插入去重，或者加锁、查重的老流程
+    @Override
+    public Result createVoucherOrder(VoucherOrder voucherOrder) {
+        if (!seckillProperties.getOrder().isIdempotentInsert()) {
+            return createVoucherOrderWithLock(voucherOrder);
+        }
+        // 用代理对象调用，事务才会生效
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        try {
+            List<VoucherOrder> rejected = proxy.insertVoucherOrdersIfAbsent(Collections.singletonList(voucherOrder));
+            return rejected.isEmpty() ? Result.ok() : Result.fail("不允许重复下单");
+        } catch (IllegalStateException e) {
+            // 扣减库存失败，事务已回滚
+            log.error("库存不足！");
+            return Result.fail("库存不足");
+        }
+    }
+
+    // 加锁、查重后创建订单
+    @Override
+    public Result createVoucherOrderWithLock(VoucherOrder voucherOrder) {
         // 1.获取用户
         // 这里获取用户id就不能去当前线程里取了，因为我们是单独开了线程去处理队列里的订单，不是主线程
         Long userId = voucherOrder.getUserId();
@@ -170,17 +181,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         if (!isLock) {
             // 4.1 获取锁失败，打印错误信息，这里不用返回给前端了
             log.error("不允许重复下单！");
-            return;
+            return Result.fail("不允许重复下单");
         }
 
         try {
             // 5.1.查询订单
-            int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
+            VoucherOrder existing = query().select("id").eq("user_id", userId).eq("voucher_id", voucherId).last("limit 1").one();
             // 5.2.判断是否存在
-            if (count > 0) {
+            if (existing != null) {
+                // 消息重放时订单可能已经落库了，是同一个订单就算成功
+                if (existing.getId().equals(voucherOrder.getId())) {
+                    return Result.ok();
+                }
                 // 用户已经购买过了
                 log.error("不允许重复下单！");
-                return;
+                return Result.fail("不允许重复下单");
             }
 
             // 6.扣减库存
@@ -191,11 +206,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             if (!success) {
                 // 扣减失败
                 log.error("库存不足！");
-                return;
+                return Result.fail("库存不足");
             }
 
             // 7.创建订单
             save(voucherOrder);
+            return Result.ok();
         } finally {
             // 释放锁
             lock.unlock();
@@ -203,6 +219,71 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
 
+    // 批量创建秒杀订单，按配置走插入去重，或者整批直接插入的老流程，返回因重复下单没有创建的订单
+    @Override
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+        if (seckillProperties.getOrder().isIdempotentInsert()) {
+            return proxy.insertVoucherOrdersIfAbsent(voucherOrders);
+        }
+        proxy.insertVoucherOrders(voucherOrders);
+        return Collections.emptyList();
+    }
+
+    // 整批直接插入：同一张券只执行一次 stock = stock - k，整批订单一条多值insert写入，失败则整批回滚
+    // 一人一单已经由lua脚本保证，这里不再逐个加锁、查询
+    @Override
+    @Transactional
+    public void insertVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.按优惠券id分组，统计每张券要扣减的库存
+        Map<Long, Long> counts = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        // 2.扣减库存
+        counts.forEach(this::decreaseStock);
+        // 3.创建订单
+        getBaseMapper().insertBatch(voucherOrders);
+    }
+
+    // 插入去重：不加锁、不先查询，INSERT IGNORE 跳过主键或 (user_id, voucher_id) 冲突的订单，只按实际插入的条数扣库存
+    // 消息重放时订单已经存在，不会重复扣库存；返回因同一用户已有其他订单而没有插入的订单
+    @Override
+    @Transactional
+    public List<VoucherOrder> insertVoucherOrdersIfAbsent(List<VoucherOrder> voucherOrders) {
+        List<VoucherOrder> rejected = new ArrayList<>();
+        // 1.按优惠券id分组，每张券一条多值insert
+        Map<Long, List<VoucherOrder>> groups = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        groups.forEach((voucherId, orders) -> {
+            int inserted = getBaseMapper().insertBatchIfAbsent(orders);
+            // 2.按实际插入的条数扣库存
+            if (inserted > 0) {
+                decreaseStock(voucherId, (long) inserted);
+            }
+            if (inserted == orders.size()) {
+                return;
+            }
+            // 3.有没插入的：订单id已经存在的是消息重放，算创建成功；不存在的是和同一用户的其他订单冲突了
+            List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+            Set<Long> existing = query().select("id").in("id", ids).list().stream()
+                    .map(VoucherOrder::getId).collect(Collectors.toSet());
+            orders.stream().filter(o -> !existing.contains(o.getId())).forEach(rejected::add);
+        });
+        return rejected;
+    }
+
+    // stock = stock - k，库存不足时抛异常让整批回滚
+    private void decreaseStock(Long voucherId, Long k) {
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + k) // set stock = stock - k
+                .eq("voucher_id", voucherId).ge("stock", k) // where id = ? and stock >= k
+                .update();
+        if (!success) {
+            // 抛异常让整批回滚
+            throw new IllegalStateException("库存不足！voucherId=" + voucherId);
+        }
+    }
+
+
 /*    // 创建简单的阻塞队列
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
@@ -295,7 +376,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 7.创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
         // 7.1.订单id，调用全局ID生成器
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idWorker.nextId("order");
         voucherOrder.setId(orderId);
         // 7.2.用户id
         voucherOrder.setUserId(userId);
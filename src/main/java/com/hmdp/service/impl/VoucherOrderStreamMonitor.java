@@ -0,0 +1,183 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.service.impl.VoucherOrderConsumer.CONSUMED_METRIC;
+import static com.hmdp.service.impl.VoucherOrderConsumer.GROUP;
+
+/**
+ * 订单消息队列的维护和监控
+ * <p>
+ * 1.定时 XTRIM 掉已确认的消息：比 pending-list 里最老的消息、以及组里最后投递的消息都更早的，肯定已经确认过了，可以安全删除。
+ * 不在 XADD 时用 MAXLEN 定长截断，那样消费积压时会把还没落库的订单删掉<br>
+ * 2.定时采样每个分区的队列长度、pending数、最老pending消息的等待时间，以及整体消费速率，通过 /actuator/metrics 暴露
+ * </p>
+ */
+@Slf4j
+@Component
+public class VoucherOrderStreamMonitor {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // Lettuce 的通用 execute 解析不了 XTRIM 的整数返回值，用一行脚本执行 XTRIM key MINID ~ id
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT =
+            new DefaultRedisScript<>("return redis.call('xtrim', KEYS[1], 'MINID', '~', ARGV[1])", Long.class);
+
+    private final List<PartitionStats> stats = new ArrayList<>();
+
+    private ScheduledExecutorService executor;
+
+    private Counter consumedCounter;
+
+    private double lastConsumed;
+
+    private long lastSampleTime;
+
+    // 最近一个采样周期的消费速率，单位：条/秒
+    private volatile double consumeRate;
+
+    // 每个分区的采样结果，指标直接读这里，不在拉取指标时访问 Redis
+    private static class PartitionStats {
+        private final String streamKey;
+        private volatile long length;
+        private volatile long pending;
+        private volatile long oldestPendingAgeMs;
+
+        PartitionStats(String streamKey) {
+            this.streamKey = streamKey;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Order props = seckillProperties.getOrder();
+        for (int p = 0; p < props.getPartitions(); p++) {
+            PartitionStats s = new PartitionStats(VoucherOrderConsumer.streamKey(p));
+            Gauge.builder("seckill.order.stream.length", s, x -> x.length)
+                    .tag("stream", s.streamKey).description("stream 中的消息数").register(meterRegistry);
+            Gauge.builder("seckill.order.stream.pending", s, x -> x.pending)
+                    .tag("stream", s.streamKey).description("已投递未确认的消息数").register(meterRegistry);
+            Gauge.builder("seckill.order.stream.oldest.pending.age", s, x -> x.oldestPendingAgeMs / 1000.0)
+                    .tag("stream", s.streamKey).baseUnit("seconds").description("最老一条未确认消息距今的时间").register(meterRegistry);
+            stats.add(s);
+        }
+        consumedCounter = meterRegistry.counter(CONSUMED_METRIC);
+        Gauge.builder("seckill.order.consume.rate", this, x -> x.consumeRate)
+                .description("最近一个采样周期每秒落库的订单数").register(meterRegistry);
+        lastSampleTime = System.currentTimeMillis();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-order-monitor-", true));
+        long sampleInterval = props.getMetricsInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::sample, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+        long trimInterval = props.getTrimInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::trimAcknowledged, trimInterval, trimInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void sample() {
+        long now = System.currentTimeMillis();
+        for (PartitionStats s : stats) {
+            try {
+                // XLEN stream.orders:p
+                Long length = stringRedisTemplate.opsForStream().size(s.streamKey);
+                s.length = length == null ? 0 : length;
+                // XPENDING stream.orders:p g1，汇总信息里有pending总数和最小的消息id，id的前半段就是写入时的毫秒时间戳
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(s.streamKey, GROUP);
+                s.pending = summary == null ? 0 : summary.getTotalPendingMessages();
+                s.oldestPendingAgeMs = s.pending == 0 ? 0 : Math.max(now - timestampOf(summary.minMessageId()), 0);
+            } catch (Exception e) {
+                log.warn("采样订单队列指标失败, stream={}", s.streamKey, e);
+            }
+        }
+        double consumed = consumedCounter.count();
+        if (now > lastSampleTime) {
+            consumeRate = (consumed - lastConsumed) * 1000 / (now - lastSampleTime);
+        }
+        lastConsumed = consumed;
+        lastSampleTime = now;
+    }
+
+    private void trimAcknowledged() {
+        for (PartitionStats s : stats) {
+            try {
+                // 1.先取组里最后投递的消息id，比它新的消息还没投递，不能删
+                String lastDelivered = null;
+                StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(s.streamKey);
+                for (int i = 0; i < groups.size(); i++) {
+                    if (GROUP.equals(groups.get(i).groupName())) {
+                        lastDelivered = groups.get(i).lastDeliveredId();
+                    }
+                }
+                if (lastDelivered == null) {
+                    continue;
+                }
+                // 2.再取pending-list里最老的消息id，比它新的可能还没确认。顺序不能反，否则两次查询之间新投递的消息会被误删
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(s.streamKey, GROUP);
+                String minId = lastDelivered;
+                if (summary != null && summary.getTotalPendingMessages() > 0 && compareId(summary.minMessageId(), minId) < 0) {
+                    minId = summary.minMessageId();
+                }
+                if ("0-0".equals(minId)) {
+                    continue;
+                }
+                // 3.XTRIM stream.orders:p MINID ~ minId，删掉id比minId小的消息，~ 表示按内部节点整块删除，开销更小
+                Long trimmed = stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(s.streamKey), minId);
+                if (trimmed != null && trimmed > 0) {
+                    log.debug("裁剪订单队列 {} 已确认消息 {} 条", s.streamKey, trimmed);
+                }
+            } catch (Exception e) {
+                log.warn("裁剪订单队列失败, stream={}", s.streamKey, e);
+            }
+        }
+    }
+
+    private static long timestampOf(String id) {
+        int i = id.indexOf('-');
+        return Long.parseLong(i < 0 ? id : id.substring(0, i));
+    }
+
+    // 比较两个 stream 消息id（毫秒时间戳-序号）
+    private static int compareId(String a, String b) {
+        int c = Long.compare(timestampOf(a), timestampOf(b));
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(sequenceOf(a), sequenceOf(b));
+    }
+
+    private static long sequenceOf(String id) {
+        int i = id.indexOf('-');
+        return i < 0 ? 0 : Long.parseLong(id.substring(i + 1));
+    }
+}
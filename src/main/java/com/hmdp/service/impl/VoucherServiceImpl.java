@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.date.LocalDateTimeUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
@@ -7,14 +8,19 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.HmCached;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillWindowCache;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
 
 /**
  * <p>
@@ -31,7 +37,13 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -41,6 +53,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    @HmCached(prefix = CACHE_VOUCHER_KEY, ttl = 30)
+    public Voucher getVoucherById(Long id) {
+        return getById(id);
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,7 +71,61 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中，普通的String结构，不用设置超时时间
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后再写 Redis 和本节点，回滚了不会留下数据库里没有的券的库存和时间窗口
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    initSeckill(voucher);
+                }
+            });
+        } else {
+            initSeckill(voucher);
+        }
+    }
+
+    private void initSeckill(Voucher voucher) {
+        // 1.保存秒杀库存到Redis中，按配置拆成多个分片
+        seckillStockManager.initStock(voucher.getId(), voucher.getStock());
+        // 2.保存秒杀时间窗口到Redis和本节点，下单时不用再查数据库
+        long begin = LocalDateTimeUtil.toEpochMilli(voucher.getBeginTime());
+        long end = LocalDateTimeUtil.toEpochMilli(voucher.getEndTime());
+        seckillStockManager.saveWindow(voucher.getId(), begin, end);
+        seckillWindowCache.put(voucher.getId(), begin, end);
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        // 1.数据库库存 stock = stock + count
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2.事务提交后再加 Redis 库存，回滚了不会多出数据库里没有的库存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    addRedisStock(voucherId, count);
+                }
+            });
+        } else {
+            addRedisStock(voucherId, count);
+        }
+        return Result.ok();
+    }
+
+    private void addRedisStock(Long voucherId, int count) {
+        // 1.Redis库存 incrby，分摊到各个分片
+        seckillStockManager.addStock(voucherId, count);
+        // 2.清除各节点的售罄标记
+        seckillSoldOutCache.clearSoldOut(voucherId);
     }
 }
@@ -1,133 +1,962 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.dto.HotKeyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_KEY_PREFIX;
+import static com.hmdp.utils.RedisConstants.LOCK_KEY_PREFIX;
 
 /**
  * @Classname: CacheClient
  * @author: wanyu
  * @Date: 2022/7/10 11:32
+ * <p>
+ * 可选的两级缓存：Redis 前面再加一层本节点内存里的缓存（按key个数LRU淘汰，有效期很短），存的是反序列化好的对象，
+ * 命中时既不访问 Redis 也不用解码。缓存写入和删除时通过 Redis 发布订阅通知所有节点删掉本地缓存；
+ * 通知丢失或者和查询并发错过时，本地缓存最多在有效期内是旧数据。
+ * 本地缓存命中返回的是同一个对象，调用方不要修改
+ * </p>
+ * <p>
+ * 可选的布隆过滤器：按key前缀注册，启动时和之后定时从数据库加载全部id，新增数据时本节点写入并通过发布订阅通知其他节点。
+ * 查询前先判断，一定不存在的id直接返回null，不再为每个不存在的id写一个空值缓存、查一次数据库。
+ * 过滤器第一次加载完成之前不做判断
+ * </p>
+ * <p>
+ * 可选的热点key探测：每次查询按采样率记一次访问，滑动窗口内访问次数超过阈值的key提升为热点，
+ * 单独放进一个很小、有效期很短的本地副本里（不管一级缓存开没开），冷下来以后降级删掉副本
+ * </p>
  */
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+    // 本地缓存里表示"数据不存在"的空值
+    private static final Object NULL_VALUE = new Object();
+
+    // 失效通知的格式：节点标识 + 分隔符 + key。本节点发出的通知在发送前已经处理过，收到时跳过，
+    // 否则通知晚到会把这期间刚放进来的新数据也删掉
+    private static final char SEPARATOR = '|';
+    private final String nodeId = UUID.fastUUID().toString(true);
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 读写编码后的缓存值
+    @Resource
+    private RedisTemplate<String, byte[]> bytesRedisTemplate;
+
+    // 缓存值的编码方式，默认 JSON
+    @Resource
+    private CacheCodec cacheCodec;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 本地缓存：key -> 反序列化后的对象
+    private LRUCache<String, Object> localCache;
+
+    // 热点key探测，没开启时为null
+    private HotKeyDetector hotKeyDetector;
+
+    // 热点key的本地副本：key -> 反序列化后的对象
+    private LRUCache<String, Object> hotCache;
+
+    // 本节点内同一个key的数据库查询合并成一次
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // 按key前缀统计的指标
+    private CacheMetrics metrics;
+
+    // 异步重建缓存：按key前缀限制并发，同一个key不重复提交，排队数有上限
+    private RebuildScheduler rebuildScheduler;
+
+    // key前缀 -> 布隆过滤器
+    private final ConcurrentHashMap<String, BloomEntry> bloomFilters = new ConcurrentHashMap<>();
+
+    // 定时重建布隆过滤器的线程
+    private ScheduledExecutorService bloomExecutor;
+
+    // 各级缓存的命中次数，查询时只做累加
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder hotMisses = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.Local local = cacheProperties.getLocal();
+        localCache = CacheUtil.newLRUCache(Math.max(local.getMaximumSize(), 1), local.getTtl().toMillis());
+        // 本地缓存没开也要订阅，其他节点可能开了，自己不用处理
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+        bloomExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-bloom-", true));
+        metrics = new CacheMetrics(meterRegistry);
+        CacheProperties.Rebuild rebuild = cacheProperties.getRebuild();
+        rebuildScheduler = new RebuildScheduler(rebuild.getThreads(), rebuild.getQueueCapacity(),
+                rebuild.getMaxPerPrefix(), rebuild.getPrefixLimits(), meterRegistry);
+        registerMetrics("local", localHits, localMisses);
+        registerMetrics("redis", redisHits, redisMisses);
+        Gauge.builder("cache.local.size", localCache, LRUCache::size)
+                .description("本地缓存的key个数")
+                .register(meterRegistry);
+        initHotKeyDetector();
+    }
+
+    // 热点key探测：命中次数、当前热点key个数
+    private void initHotKeyDetector() {
+        CacheProperties.HotKey hotKey = cacheProperties.getHotKey();
+        if (!hotKey.isEnabled()) {
+            return;
+        }
+        hotCache = CacheUtil.newLRUCache(Math.max(hotKey.getReplicaSize(), 1), hotKey.getReplicaTtl().toMillis());
+        // 降级时删掉副本
+        hotKeyDetector = new HotKeyDetector(hotKey.getSketchWidth(), hotKey.getSketchDepth(),
+                hotKey.getWindow().toMillis(), hotKey.getThreshold(), hotKey.getSampleRate(), hotKey.getTopK(),
+                hotCache::remove);
+        registerMetrics("hot", hotHits, hotMisses);
+        Gauge.builder("cache.hot.keys", hotKeyDetector, HotKeyDetector::hotCount)
+                .description("当前的热点key个数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        bloomExecutor.shutdownNow();
+        rebuildScheduler.shutdown(cacheProperties.getRebuild().getShutdownTimeout());
+    }
+
+    // cache.requests{tier,result} 请求次数，cache.hit.ratio{tier} 命中率
+    private void registerMetrics(String tier, LongAdder hits, LongAdder misses) {
+        FunctionCounter.builder("cache.requests", hits, LongAdder::sum)
+                .tags("tier", tier, "result", "hit").register(meterRegistry);
+        FunctionCounter.builder("cache.requests", misses, LongAdder::sum)
+                .tags("tier", tier, "result", "miss").register(meterRegistry);
+        Gauge.builder("cache.hit.ratio", this, c -> {
+                    long hit = hits.sum();
+                    long total = hit + misses.sum();
+                    return total == 0 ? 0 : (double) hit / total;
+                })
+                .tags("tier", tier)
+                .description("缓存命中率")
+                .register(meterRegistry);
+    }
+
     // redis缓存，设置TTL过期时间
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        bytesRedisTemplate.opsForValue().set(key, cacheCodec.encode(value), time, unit);
+        evictLocal(key);
+    }
+
+    // 删除缓存，同时删除所有节点的本地缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+    }
+
+    /**
+     * 批量删除缓存：先删本节点的本地缓存，再用一个 pipeline 删 Redis 并通知其他节点。Redis 出错时抛异常，调用方负责重试
+     *
+     * @param unlink true 用 UNLINK 在 Redis 后台线程释放内存，大value不会阻塞 Redis
+     */
+    public void deleteBatch(Collection<String> keys, boolean unlink) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            removeLocal(key);
+        }
+        String[] array = keys.toArray(new String[0]);
+        executeWrites(connection -> {
+            if (unlink) {
+                connection.unlink(array);
+            } else {
+                connection.del(array);
+            }
+            for (String key : array) {
+                publishEvict(connection, key);
+            }
+        });
     }
 
     // redis缓存，设置逻辑过期
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    // 逻辑过期，同时记下这次重建的耗时
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildCost) {
+        // 写入Redis
+        bytesRedisTemplate.opsForValue().set(key, encodeLogical(value, time, unit, rebuildCost));
+        evictLocal(key);
+    }
+
+    private byte[] encodeLogical(Object value, Long time, TimeUnit unit, Long rebuildCost) {
+        // 逻辑过期：当前时间+期望时间
+        return encodeLogical(value, LocalDateTime.now().plusSeconds(unit.toSeconds(time)), rebuildCost);
+    }
+
+    private byte[] encodeLogical(Object value, LocalDateTime expireTime, Long rebuildCost) {
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time))); // 逻辑过期：当前时间+期望时间
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setRebuildCost(rebuildCost);
+        redisData.setExpireTime(expireTime);
+        return cacheCodec.encodeLogical(redisData);
+    }
+
+    /**
+     * 批量写带TTL的缓存（预热用），格式和 {@link #set} 一样，给 queryWithPassThrough 读。
+     * TTL 在 time 的基础上随机增加最多 jitter 比例，一起写进去的key不会在同一时刻过期
+     *
+     * @param values key -> 数据
+     * @param jitter 0 表示不加随机时间，0.2 表示最多多加 20%
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit, double jitter) {
+        if (values.isEmpty()) {
+            return;
+        }
+        // 1.编码
+        long millis = unit.toMillis(time);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<byte[]> keys = new ArrayList<>(values.size());
+        List<byte[]> encoded = new ArrayList<>(values.size());
+        List<Long> ttls = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> e : values.entrySet()) {
+            keys.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+            encoded.add(cacheCodec.encode(e.getValue()));
+            ttls.add(jitter > 0 ? millis + (long) (millis * jitter * random.nextDouble()) : millis);
+        }
+        // 2.一个 pipeline 写完
+        executeWrites(connection -> {
+            int i = 0;
+            for (String key : values.keySet()) {
+                connection.pSetEx(keys.get(i), ttls.get(i), encoded.get(i++));
+                publishEvict(connection, key);
+            }
+        });
+        for (String key : values.keySet()) {
+            removeLocal(key);
+        }
+    }
+
+    /**
+     * 批量写逻辑过期缓存（预热用）：在调用线程里编码，再用一个 pipeline 写完并通知所有节点删除本地缓存。
+     * 逻辑过期时间在 time 的基础上随机增加最多 jitter 比例，一起写进去的key不会在同一时刻过期
+     *
+     * @param values key -> 数据
+     * @param jitter 0 表示不加随机时间，0.2 表示最多多加 20%
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit, double jitter) {
+        if (values.isEmpty()) {
+            return;
+        }
+        // 1.编码
+        LocalDateTime now = LocalDateTime.now();
+        long millis = unit.toMillis(time);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<byte[]> keys = new ArrayList<>(values.size());
+        List<byte[]> encoded = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> e : values.entrySet()) {
+            long expire = jitter > 0 ? millis + (long) (millis * jitter * random.nextDouble()) : millis;
+            keys.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+            encoded.add(encodeLogical(e.getValue(), now.plus(Duration.ofMillis(expire)), null));
+        }
+        // 2.一个 pipeline 写完
+        executeWrites(connection -> {
+            int i = 0;
+            for (String key : values.keySet()) {
+                connection.set(keys.get(i), encoded.get(i++));
+                publishEvict(connection, key);
+            }
+        });
+        for (String key : values.keySet()) {
+            removeLocal(key);
+        }
+    }
+
+    // 删除本节点的本地缓存，并通知其他节点删除。不经过本类直接写 Redis 的地方也要调用
+    public void evictLocal(String key) {
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, nodeId + SEPARATOR + key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_BLOOM_CHANNEL.equals(channel)) {
+            // 布隆过滤器新增消息：keyPrefix|id，重复添加没有影响，本节点发的也照常处理
+            int index = body.lastIndexOf(SEPARATOR);
+            if (index < 0) {
+                log.warn("无法解析布隆过滤器消息: {}", body);
+                return;
+            }
+            addBloomLocal(body.substring(0, index), body.substring(index + 1));
+            return;
+        }
+        int index = body.indexOf(SEPARATOR);
+        if (index < 0) {
+            log.warn("无法解析缓存失效消息: {}", body);
+            return;
+        }
+        if (index == nodeId.length() && body.startsWith(nodeId)) {
+            return;
+        }
+        removeLocal(body.substring(index + 1));
+    }
+
+    // 删掉本节点的本地缓存和热点副本
+    private void removeLocal(String key) {
+        localCache.remove(key);
+        if (hotKeyDetector != null) {
+            hotCache.remove(key);
+        }
+    }
+
+    /**
+     * 当前访问次数估计值最大的几个key，热点探测没开启时为空
+     */
+    public List<HotKeyDTO> hotKeys() {
+        return hotKeyDetector == null ? Collections.emptyList() : hotKeyDetector.topKeys();
+    }
+
+    /**
+     * 给一个key前缀注册布隆过滤器，异步加载一次，之后按配置的间隔定时重建。没开启布隆过滤器时什么都不做
+     *
+     * @param keyPrefix redis里的前缀，和查询时传的一样
+     * @param idLoader  从数据库查出全部id
+     */
+    public void registerBloomFilter(String keyPrefix, Supplier<? extends Collection<?>> idLoader) {
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        if (!bloom.isEnabled()) {
+            return;
+        }
+        BloomEntry entry = new BloomEntry(idLoader,
+                meterRegistry.counter("cache.bloom.rejected", "prefix", keyPrefix));
+        if (bloomFilters.putIfAbsent(keyPrefix, entry) != null) {
+            throw new IllegalStateException("key前缀 " + keyPrefix + " 已经注册过布隆过滤器");
+        }
+        Gauge.builder("cache.bloom.memory", entry, e -> e.current == null ? 0 : e.current.byteSize())
+                .tags("prefix", keyPrefix)
+                .description("布隆过滤器位数组占用的字节数")
+                .register(meterRegistry);
+        long interval = bloom.getRebuildInterval().toMillis();
+        bloomExecutor.scheduleWithFixedDelay(() -> rebuildBloomFilter(keyPrefix, entry), 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // 新增数据后调用，写入本节点的布隆过滤器并通知其他节点。通知丢了的节点上，新id比加载到的最大id大，也不会被拦截
+    public void addToBloomFilter(String keyPrefix, Object id) {
+        if (!bloomFilters.containsKey(keyPrefix)) {
+            return;
+        }
+        addBloomLocal(keyPrefix, String.valueOf(id));
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + SEPARATOR + id);
+    }
+
+    private void addBloomLocal(String keyPrefix, String id) {
+        BloomEntry entry = bloomFilters.get(keyPrefix);
+        if (entry == null) {
+            return;
+        }
+        // 重建期间新增的id两个过滤器都要写，否则切换后就丢了
+        synchronized (entry) {
+            if (entry.current != null) {
+                entry.current.add(id);
+            }
+            if (entry.building != null) {
+                entry.building.add(id);
+            }
+        }
+    }
+
+    // 布隆过滤器判断id一定不存在时返回true，过滤器还没加载好返回false。
+    // id是自增的，比上次重建时加载到的最大id还大的，可能是新增通知丢了，放行去查缓存和数据库
+    private boolean rejectedByBloom(String keyPrefix, Object id) {
+        if (bloomFilters.isEmpty()) {
+            return false;
+        }
+        BloomEntry entry = bloomFilters.get(keyPrefix);
+        LocalBloomFilter filter = entry == null ? null : entry.current;
+        if (filter == null || id instanceof Number && ((Number) id).longValue() > entry.maxLoadedId
+                || filter.mightContain(String.valueOf(id))) {
+            return false;
+        }
+        entry.rejected.increment();
+        return true;
+    }
+
+    // 新建一个过滤器，从数据库加载全部id后替换掉旧的
+    private void rebuildBloomFilter(String keyPrefix, BloomEntry entry) {
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        LocalBloomFilter filter = new LocalBloomFilter(bloom.getExpectedInsertions(), bloom.getFpp(),
+                bloom.getMaxMemory().toBytes() * Byte.SIZE);
+        // 1.先登记正在重建的过滤器，再查数据库，查询之后新增的id也会写进来
+        synchronized (entry) {
+            entry.building = filter;
+        }
+        try {
+            // 2.加载全部id，顺便记下最大的数字id，有不是数字的id就不放行
+            Collection<?> ids = entry.idLoader.get();
+            long maxId = Long.MIN_VALUE;
+            for (Object id : ids) {
+                filter.add(String.valueOf(id));
+                maxId = id instanceof Number ? Math.max(maxId, ((Number) id).longValue()) : Long.MAX_VALUE;
+            }
+            // 3.替换
+            synchronized (entry) {
+                entry.maxLoadedId = maxId;
+                entry.current = filter;
+            }
+            log.info("布隆过滤器 {} 重建完成，{} 个id，{} 字节，{} 个哈希函数", keyPrefix, ids.size(), filter.byteSize(), filter.getHashCount());
+        } catch (Exception e) {
+            // 加载失败继续用旧的，还没加载成功过就不做判断
+            log.warn("布隆过滤器 {} 重建失败", keyPrefix, e);
+        } finally {
+            synchronized (entry) {
+                entry.building = null;
+            }
+        }
+    }
+
+    private static class BloomEntry {
+        private final Supplier<? extends Collection<?>> idLoader;
+        private final Counter rejected;
+        // 正在使用的过滤器，第一次加载完成之前为null
+        private volatile LocalBloomFilter current;
+        // 正在重建的过滤器
+        private LocalBloomFilter building;
+        // 最近一次重建加载到的最大id，比它大的id不拦截
+        private volatile long maxLoadedId = Long.MAX_VALUE;
+
+        BloomEntry(Supplier<? extends Collection<?>> idLoader, Counter rejected) {
+            this.idLoader = idLoader;
+            this.rejected = rejected;
+        }
+    }
+
+    // 查本地缓存：没开启或者没命中返回null，命中的空值返回 NULL_VALUE。取的时候不刷新有效期，过期时间从写入时算
+    // 开启热点探测时顺便记一次访问，热点key先查热点副本
+    private Object getLocal(String key, Class<?> type) {
+        if (hotKeyDetector != null && hotKeyDetector.record(key)) {
+            Object value = hotCache.get(key, false);
+            if (value == NULL_VALUE || type.isInstance(value)) {
+                hotHits.increment();
+                return value;
+            }
+            hotMisses.increment();
+        }
+        if (!cacheProperties.getLocal().isEnabled()) {
+            return null;
+        }
+        Object value = localCache.get(key, false);
+        if (value == NULL_VALUE || type.isInstance(value)) {
+            localHits.increment();
+            return value;
+        }
+        localMisses.increment();
+        return null;
+    }
+
+    // 写本地缓存，有效期不超过 maxTtl 毫秒（逻辑过期时间、空值的有效期）
+    private void putLocal(String key, Object value, long maxTtl) {
+        if (hotKeyDetector != null && hotKeyDetector.isHot(key)) {
+            long ttl = Math.min(cacheProperties.getHotKey().getReplicaTtl().toMillis(), maxTtl);
+            if (ttl > 0) {
+                hotCache.put(key, value == null ? NULL_VALUE : value, ttl);
+            }
+        }
+        if (!cacheProperties.getLocal().isEnabled()) {
+            return;
+        }
+        long ttl = Math.min(cacheProperties.getLocal().getTtl().toMillis(), maxTtl);
+        if (ttl > 0) {
+            localCache.put(key, value == null ? NULL_VALUE : value, ttl);
+        }
     }
 
     // 根据指定类型的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
     // 之前返回类型固定为店铺，现在使用泛型R，参数里加上Class<R> type，表示手动传入对象类型，进行泛型推断
     // keyPrefix是redis里的前缀，前缀+id，才是redis里的key。ID也不一定为Long型，所以也使用泛型
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        // 0.布隆过滤器判断一定不存在，直接返回
+        if (rejectedByBloom(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        CacheMetrics.Prefix m = metrics.of(keyPrefix);
+        // 0.1.先查本地缓存
+        Object local = getLocal(key, type);
+        if (local != null) {
+            m.local();
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询对象类型的缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long start = System.nanoTime();
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        m.redis(start);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
+        if (bytes != null && bytes.length > 0) {
+            redisHits.increment();
+            m.hit();
             // 3.存在，直接返回。返回的类型不再是店铺，而是传进来的type
-            return JSONUtil.toBean(json, type);
+            start = System.nanoTime();
+            R r = cacheCodec.decode(bytes, type);
+            m.decode(start);
+            putLocal(key, r, unit.toMillis(time));
+            return r;
         }
         // 判断命中的是否是空值。这里很容易忘记，查到的缓存只有三种情况：查到(正常情况)；空值(“”)；为null
         // 所以不等于空就只能是空值了，上面的isNotBlank()方法是认定只有字符串有内容才返回true，比如“abc”。其他类似NULL(为空),""(空值)返回都是false
         // 或者直接写 if ("".equals(shopJson))
-        if (json != null) {
+        if (bytes != null) {
+            redisHits.increment();
+            m.nullHit();
+            putLocal(key, null, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             // 返回一个错误信息
             return null;
         }
+        redisMisses.increment();
+        m.miss();
+        // 4.缓存不存在，查询数据库并写入缓存，本节点同一个key同时只有一个线程查询，其他线程等它的结果
+        return singleFlight.execute(key, () -> loadAndSet(m, key, id, dbFallback, time, unit), cacheProperties.getLoadTimeout());
+    }
 
+    private <R, ID> R loadAndSet(CacheMetrics.Prefix m, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         // 4.缓存不存在，根据id查询数据库。这里需要格外关注，使用到了函数式编程，不同对象的数据库查询方法自然不同，这里既然不知道是什么对象类型，只能把问题抛给调用者
         // 所以我们在参数里加上函数，有参(参数类型ID)有返回值(返回值类型R)，起名dbFallback，apply方法就是调用这个函数，并把id作为参数传进去
-        R r = dbFallback.apply(id);
+        long start = System.nanoTime();
+        R r;
+        try {
+            r = dbFallback.apply(id);
+        } catch (RuntimeException e) {
+            m.rebuild(false);
+            throw e;
+        } finally {
+            m.db(start);
+        }
+        m.rebuild(true);
         // 5.DB里也不存在，返回错误
         if (r == null) {
             // 将空值写入redis，避免缓存穿透。TTL为2min
             stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, null, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
             // 返回错误信息
             return null;
         }
         // 6.DB里存在，写入redis，调用了前面的普通设置缓存的方法，还需要参数时间和单位
         this.set(key, r, time, unit);
+        putLocal(key, r, unit.toMillis(time));
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     // 根据指定类型的key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题
     // 细节同上，不赘述
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在，直接返回
+        if (rejectedByBloom(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        CacheMetrics.Prefix m = metrics.of(keyPrefix);
+        // 0.1.先查本地缓存，本地缓存里只放还没逻辑过期的数据
+        Object local = getLocal(key, type);
+        if (local != null) {
+            m.local();
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long start = System.nanoTime();
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        m.redis(start);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
+            redisMisses.increment();
+            m.miss();
             // 3.存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        redisHits.increment();
+        // 4.命中，需要先反序列化为对象
+        start = System.nanoTime();
+        RedisData redisData = cacheCodec.decodeLogical(bytes, type);
+        m.decode(start);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
-            return r;
+        long remaining = Duration.between(LocalDateTime.now(), expireTime).toMillis();
+        if (remaining > 0) {
+            // 5.1.未过期，放进本地缓存，不能超过逻辑过期时间
+            putLocal(key, r, remaining);
+            // 5.2.没有抽中提前刷新，直接返回店铺信息
+            if (!shouldRefreshEarly(keyPrefix, redisData.getRebuildCost(), remaining)) {
+                m.hit();
+                return r;
+            }
+            m.earlyRefresh();
+        } else {
+            m.expired();
         }
-        // 5.2.已过期，需要缓存重建
+        // 5.3.已过期或者抽中了提前刷新，需要缓存重建
         // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        // 6.1.本节点已经在排队或者在重建了就不用再抢锁
+        if (singleFlight.isInFlight(key) || rebuildScheduler.isPending(key)) {
+            return r;
+        }
+        // 6.2.获取互斥锁，锁按key前缀区分，不同前缀相同id不会互相影响
+        String lockKey = lockKey(keyPrefix, id);
         boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
+        // 6.3.判断是否获取锁成功
         if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.4.成功，交给重建调度，实现缓存重建
+            boolean submitted = rebuildScheduler.submit(keyPrefix, Collections.singletonList(key), () -> {
+                long begin = System.nanoTime();
                 try {
-                    // 查询数据库
-                    R r1 = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, r1, time, unit);
+                    singleFlight.execute(key, () -> {
+                        // 查询数据库，记下耗时
+                        R r1 = dbFallback.apply(id);
+                        m.db(begin);
+                        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                        // 重建缓存
+                        this.setWithLogicalExpire(key, r1, time, unit, cost);
+                        return r1;
+                    }, cacheProperties.getLoadTimeout());
+                    m.rebuild(true);
                 } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
+                    m.rebuild(false);
+                    log.error("重建缓存失败, key={}", key, e);
+                } finally {
                     // 释放锁
                     unlock(lockKey);
                 }
             });
+            if (!submitted) {
+                // 重复提交或者队列满了，放掉锁，让下一个请求再试
+                unlock(lockKey);
+            }
         }
-        // 6.4.返回过期的商铺信息
+        // 6.5.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * 批量版的 queryWithPassThrough：一次 MGET 查缓存，没命中的id一次查数据库，结果和空值通过一个 pipeline 写回 Redis
+     *
+     * @param dbFallback 按一批id查数据库，比如 listByIds
+     * @param idGetter   从查出来的对象上取id，用来和传进来的id对应
+     * @return id -> 对象，按传入的顺序，不存在的id不在结果里
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbFallback, Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        CacheMetrics.Prefix m = metrics.of(keyPrefix);
+        // 1.布隆过滤器、本地缓存，剩下的一次 MGET
+        List<ID> remaining = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (rejectedByBloom(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            Object local = getLocal(key, type);
+            if (local == null) {
+                remaining.add(id);
+                keys.add(key);
+                // 先占住位置，保持传入的顺序
+                result.put(id, null);
+                continue;
+            }
+            m.local();
+            if (local != NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (keys.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        List<byte[]> values = bytesRedisTemplate.opsForValue().multiGet(keys);
+        m.redis(start);
+        // 2.命中的直接用，空值跳过，不存在的记下来
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i++) {
+            ID id = remaining.get(i);
+            byte[] bytes = values.get(i);
+            if (bytes != null && bytes.length > 0) {
+                redisHits.increment();
+                m.hit();
+                start = System.nanoTime();
+                R r = cacheCodec.decode(bytes, type);
+                m.decode(start);
+                putLocal(keys.get(i), r, unit.toMillis(time));
+                result.put(id, r);
+            } else if (bytes != null) {
+                redisHits.increment();
+                m.nullHit();
+                putLocal(keys.get(i), null, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            } else {
+                redisMisses.increment();
+                m.miss();
+                misses.add(id);
+            }
+        }
+        // 3.没命中的一次查数据库
+        Map<ID, R> loaded = new HashMap<>();
+        if (!misses.isEmpty()) {
+            start = System.nanoTime();
+            Collection<R> rows;
+            try {
+                rows = dbFallback.apply(misses);
+            } catch (RuntimeException e) {
+                m.rebuild(false);
+                throw e;
+            } finally {
+                m.db(start);
+            }
+            m.rebuild(true);
+            for (R r : rows) {
+                loaded.put(idGetter.apply(r), r);
+            }
+            // 4.数据库里有的写缓存，没有的写空值，一个 pipeline 写完
+            long ttl = unit.toMillis(time);
+            long nullTtl = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+            executeWrites(connection -> {
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    String key = keyPrefix + id;
+                    connection.pSetEx(key.getBytes(StandardCharsets.UTF_8), r == null ? nullTtl : ttl,
+                            r == null ? new byte[0] : cacheCodec.encode(r));
+                    publishEvict(connection, key);
+                }
+            });
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                putLocal(keyPrefix + id, r, r == null ? nullTtl : ttl);
+            }
+        }
+        // 5.去掉不存在的id
+        result.entrySet().removeIf(e -> e.getValue() == null && !loaded.containsKey(e.getKey()));
+        result.putAll(loaded);
+        return result;
+    }
+
+    /**
+     * 批量版的 queryWithLogicalExpire：一次 MGET 查缓存，缓存里没有的id不在结果里。
+     * 过期（或者抽中提前刷新）的照常返回旧数据，在一个后台任务里逐个抢锁，抢到的一次查数据库、一个 pipeline 写回
+     *
+     * @param dbFallback 按一批id查数据库，比如 listByIds
+     * @param idGetter   从查出来的对象上取id，用来和传进来的id对应
+     * @return id -> 对象，按传入的顺序
+     */
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbFallback, Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        CacheMetrics.Prefix m = metrics.of(keyPrefix);
+        // 1.布隆过滤器、本地缓存，剩下的一次 MGET
+        List<ID> remaining = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (rejectedByBloom(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            Object local = getLocal(key, type);
+            if (local == null) {
+                remaining.add(id);
+                keys.add(key);
+                result.put(id, null);
+                continue;
+            }
+            m.local();
+            if (local != NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (keys.isEmpty()) {
+            return result;
+        }
+        long start = System.nanoTime();
+        List<byte[]> values = bytesRedisTemplate.opsForValue().multiGet(keys);
+        m.redis(start);
+        // 2.逐个判断是否过期，过期的记下来重建
+        List<ID> expired = new ArrayList<>();
+        for (int i = 0; i < remaining.size(); i++) {
+            ID id = remaining.get(i);
+            byte[] bytes = values.get(i);
+            if (bytes == null || bytes.length == 0) {
+                redisMisses.increment();
+                m.miss();
+                result.remove(id);
+                continue;
+            }
+            redisHits.increment();
+            start = System.nanoTime();
+            RedisData redisData = cacheCodec.decodeLogical(bytes, type);
+            m.decode(start);
+            R r = type.cast(redisData.getData());
+            result.put(id, r);
+            long left = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+            if (left > 0) {
+                putLocal(keys.get(i), r, left);
+                if (!shouldRefreshEarly(keyPrefix, redisData.getRebuildCost(), left)) {
+                    m.hit();
+                    continue;
+                }
+                m.earlyRefresh();
+            } else {
+                m.expired();
+            }
+            if (!singleFlight.isInFlight(keys.get(i)) && !rebuildScheduler.isPending(keys.get(i))) {
+                expired.add(id);
+            }
+        }
+        // 3.过期的交给后台重建，返回旧数据；没提交上的下一次查询再试
+        if (!expired.isEmpty()) {
+            List<String> expiredKeys = new ArrayList<>(expired.size());
+            for (ID id : expired) {
+                expiredKeys.add(keyPrefix + id);
+            }
+            rebuildScheduler.submit(keyPrefix, expiredKeys,
+                    () -> rebuildBatch(m, keyPrefix, expired, dbFallback, idGetter, time, unit));
+        }
+        return result;
+    }
+
+    // 逐个抢锁，抢到的一次查数据库，结果、解锁和失效通知一个 pipeline 写完
+    private <R, ID> void rebuildBatch(CacheMetrics.Prefix m, String keyPrefix, List<ID> ids,
+            Function<Collection<ID>, ? extends Collection<R>> dbFallback, Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        List<ID> locked = new ArrayList<>();
+        for (ID id : ids) {
+            if (tryLock(lockKey(keyPrefix, id))) {
+                locked.add(id);
+            }
+        }
+        if (locked.isEmpty()) {
+            return;
+        }
+        try {
+            long begin = System.nanoTime();
+            Map<ID, R> loaded = new HashMap<>();
+            Collection<R> rows = dbFallback.apply(locked);
+            m.db(begin);
+            for (R r : rows) {
+                loaded.put(idGetter.apply(r), r);
+            }
+            // 一批的耗时平摊到每个id上
+            long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) / locked.size();
+            executeWrites(connection -> {
+                for (ID id : locked) {
+                    String key = keyPrefix + id;
+                    connection.set(key.getBytes(StandardCharsets.UTF_8), encodeLogical(loaded.get(id), time, unit, cost));
+                    publishEvict(connection, key);
+                }
+            });
+            for (ID id : locked) {
+                removeLocal(keyPrefix + id);
+            }
+            m.rebuild(true);
+        } catch (Exception e) {
+            m.rebuild(false);
+            log.error("批量重建缓存失败, keyPrefix={}", keyPrefix, e);
+        } finally {
+            executeWrites(connection -> {
+                for (ID id : locked) {
+                    connection.del(lockKey(keyPrefix, id));
+                }
+            });
+        }
+    }
+
+    // 用一个 pipeline 执行一批写命令
+    private void executeWrites(Consumer<StringRedisConnection> writes) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writes.accept((StringRedisConnection) connection);
+            return null;
+        });
+    }
+
+    // 在 pipeline 里发失效通知，和 evictLocal 发的一样
+    private void publishEvict(StringRedisConnection connection, String key) {
+        connection.publish(CACHE_INVALIDATE_CHANNEL, nodeId + SEPARATOR + key);
+    }
+
+    /**
+     * 提前刷新（XFetch）：离逻辑过期越近、重建越慢，越可能提前触发重建，热点key会在过期前被某个请求平滑地刷新掉，
+     * 不会等到过期那一刻所有请求一起抢锁。满足 -重建耗时 × beta × ln(随机数) >= 剩余时间 就刷新，
+     * beta 按key前缀配置，越大越早刷新，没配置的前缀不提前刷新
+     */
+    private boolean shouldRefreshEarly(String keyPrefix, Long rebuildCost, long remaining) {
+        if (rebuildCost == null) {
+            return false;
+        }
+        Double beta = cacheProperties.getEarlyRefresh().get(keyPrefix);
+        if (beta == null || beta <= 0) {
+            return false;
+        }
+        // 重建耗时为0时也给1ms，否则永远不会提前
+        double delta = Math.max(rebuildCost, 1L);
+        return -delta * beta * Math.log(ThreadLocalRandom.current().nextDouble()) >= remaining;
+    }
+
+    // 重建锁的key：lock: + 去掉 cache: 的key前缀 + id，店铺还是 lock:shop:id
+    private static String lockKey(String keyPrefix, Object id) {
+        String namespace = keyPrefix.startsWith(CACHE_KEY_PREFIX) ? keyPrefix.substring(CACHE_KEY_PREFIX.length()) : keyPrefix;
+        return LOCK_KEY_PREFIX + namespace + id;
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient 写入 Redis 的值的编码方式，配置文件里 hmdp.cache.codec 选择：json（默认）或者 smile。
+ * 空值缓存（空字符串）不经过编码，由 CacheClient 自己处理
+ */
+public interface CacheCodec {
+
+    // 普通缓存的值
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    // 逻辑过期缓存的值，过期时间和重建耗时一起编码
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码逻辑过期缓存，返回的 RedisData 里 data 已经是 type 类型
+     */
+    <R> RedisData decodeLogical(byte[] bytes, Class<R> type);
+}
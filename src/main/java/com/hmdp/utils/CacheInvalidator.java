@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效：数据库修改后删除缓存
+ * <p>
+ * 1.在事务里调用时先记下来，事务提交后才删除，同一个事务里的key合并成一次批量删除（DEL/UNLINK + 失效通知，一个 pipeline）；
+ * 事务回滚不删除。不在事务里时立即删除<br>
+ * 2.可选的延迟双删：第一次删除后过一段时间再删一次，删掉提交前后并发查询写回的旧数据<br>
+ * 3.删除失败的key进重试队列，定时批量重试，超过次数放弃并记日志；队列满了也放弃，这些key要等缓存过期
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 删除失败等待重试的key
+    private LinkedBlockingQueue<Retry> retryQueue;
+
+    // 延迟双删和重试
+    private ScheduledExecutorService executor;
+
+    private Counter succeeded;
+    private Counter failed;
+    private Counter dropped;
+
+    @PostConstruct
+    private void init() {
+        CacheProperties.Invalidation invalidation = cacheProperties.getInvalidation();
+        retryQueue = new LinkedBlockingQueue<>(Math.max(invalidation.getRetryQueueCapacity(), 1));
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("cache-invalidation-", true));
+        long interval = invalidation.getRetryInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::retry, interval, interval, TimeUnit.MILLISECONDS);
+        succeeded = invalidationCounter("success");
+        failed = invalidationCounter("failed");
+        dropped = invalidationCounter("dropped");
+        Gauge.builder("cache.invalidation.retry.queue", retryQueue, LinkedBlockingQueue::size)
+                .description("等待重试删除的key个数")
+                .register(meterRegistry);
+    }
+
+    // cache.invalidations{result}：删除成功、失败进重试队列、放弃的key个数
+    private Counter invalidationCounter(String result) {
+        return Counter.builder("cache.invalidations").tag("result", result).register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 删除缓存，在事务里时等提交后再删除
+     */
+    public void invalidate(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateNow(Collections.singletonList(key));
+            return;
+        }
+        // 同一个事务的key记在一起，提交后一次删完
+        @SuppressWarnings("unchecked")
+        Set<String> keys = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (keys == null) {
+            Set<String> pending = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow(pending);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                }
+            });
+            keys = pending;
+        }
+        keys.add(key);
+    }
+
+    private void invalidateNow(Collection<String> keys) {
+        List<String> batch = new ArrayList<>(keys);
+        delete(batch, 0);
+        // 延迟双删
+        long delay = cacheProperties.getInvalidation().getDelayedDelete().toMillis();
+        if (delay > 0) {
+            executor.schedule(() -> delete(batch, 0), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 删除一批key，失败的进重试队列
+    private void delete(List<String> keys, int attempts) {
+        CacheProperties.Invalidation invalidation = cacheProperties.getInvalidation();
+        int batchSize = Math.max(invalidation.getBatchSize(), 1);
+        for (int i = 0; i < keys.size(); i += batchSize) {
+            List<String> batch = keys.subList(i, Math.min(i + batchSize, keys.size()));
+            try {
+                cacheClient.deleteBatch(batch, invalidation.isUnlink());
+                succeeded.increment(batch.size());
+            } catch (Exception e) {
+                log.warn("删除缓存失败，稍后重试 keys={}", batch, e);
+                failed.increment(batch.size());
+                for (String key : batch) {
+                    enqueueRetry(new Retry(key, attempts + 1));
+                }
+            }
+        }
+    }
+
+    private void enqueueRetry(Retry retry) {
+        if (retry.attempts > cacheProperties.getInvalidation().getMaxAttempts() || !retryQueue.offer(retry)) {
+            log.error("删除缓存失败次数过多或者重试队列已满，放弃 key={}", retry.key);
+            dropped.increment();
+        }
+    }
+
+    // 按尝试次数分组重试，同一组一次批量删除
+    private void retry() {
+        try {
+            List<Retry> retries = new ArrayList<>();
+            retryQueue.drainTo(retries);
+            if (retries.isEmpty()) {
+                return;
+            }
+            Map<Integer, List<String>> byAttempts = new TreeMap<>();
+            for (Retry retry : retries) {
+                byAttempts.computeIfAbsent(retry.attempts, k -> new ArrayList<>()).add(retry.key);
+            }
+            byAttempts.forEach((attempts, keys) -> delete(keys, attempts));
+        } catch (Exception e) {
+            log.error("重试删除缓存异常", e);
+        }
+    }
+
+    private static class Retry {
+        private final String key;
+        // 已经失败的次数
+        private final int attempts;
+
+        Retry(String key, int attempts) {
+            this.key = key;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient 按key前缀统计的指标，通过 /actuator/metrics 查看：
+ * <ul>
+ *     <li>cache.lookups{prefix,result}：local 本地缓存命中，hit Redis 命中，expired 命中但逻辑过期，null 命中空值，miss 没命中</li>
+ *     <li>cache.rebuilds{prefix,result}：查数据库重建缓存的次数，success / failure</li>
+ *     <li>cache.refresh.early{prefix}：还没过期就提前重建的次数</li>
+ *     <li>cache.redis.latency、cache.decode.latency、cache.db.latency{prefix}：读 Redis、解码、dbFallback 的耗时分布</li>
+ * </ul>
+ * 每个前缀的计数器和计时器第一次用到时创建，之后只查一次 map，记录时不分配对象
+ */
+public class CacheMetrics {
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Prefix> prefixes = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Prefix of(String keyPrefix) {
+        Prefix prefix = prefixes.get(keyPrefix);
+        return prefix != null ? prefix : prefixes.computeIfAbsent(keyPrefix, Prefix::new);
+    }
+
+    public final class Prefix {
+        private final Counter local;
+        private final Counter hit;
+        private final Counter expired;
+        private final Counter nullHit;
+        private final Counter miss;
+        private final Counter rebuildSuccess;
+        private final Counter rebuildFailure;
+        private final Counter earlyRefresh;
+        private final Timer redis;
+        private final Timer decode;
+        private final Timer db;
+
+        private Prefix(String keyPrefix) {
+            local = lookups(keyPrefix, "local");
+            hit = lookups(keyPrefix, "hit");
+            expired = lookups(keyPrefix, "expired");
+            nullHit = lookups(keyPrefix, "null");
+            miss = lookups(keyPrefix, "miss");
+            rebuildSuccess = meterRegistry.counter("cache.rebuilds", "prefix", keyPrefix, "result", "success");
+            rebuildFailure = meterRegistry.counter("cache.rebuilds", "prefix", keyPrefix, "result", "failure");
+            earlyRefresh = meterRegistry.counter("cache.refresh.early", "prefix", keyPrefix);
+            redis = timer("cache.redis.latency", keyPrefix, "读 Redis 的耗时");
+            decode = timer("cache.decode.latency", keyPrefix, "缓存值解码的耗时");
+            db = timer("cache.db.latency", keyPrefix, "dbFallback 查数据库的耗时");
+        }
+
+        private Counter lookups(String keyPrefix, String result) {
+            return meterRegistry.counter("cache.lookups", "prefix", keyPrefix, "result", result);
+        }
+
+        private Timer timer(String name, String keyPrefix, String description) {
+            return Timer.builder(name)
+                    .tag("prefix", keyPrefix)
+                    .description(description)
+                    .publishPercentiles(0.5, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        public void local() {
+            local.increment();
+        }
+
+        public void hit() {
+            hit.increment();
+        }
+
+        public void expired() {
+            expired.increment();
+        }
+
+        public void nullHit() {
+            nullHit.increment();
+        }
+
+        public void miss() {
+            miss.increment();
+        }
+
+        public void rebuild(boolean success) {
+            (success ? rebuildSuccess : rebuildFailure).increment();
+        }
+
+        public void earlyRefresh() {
+            earlyRefresh.increment();
+        }
+
+        // 参数是 System.nanoTime() 记下的开始时间
+        public void redis(long startNanos) {
+            redis.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void decode(long startNanos) {
+            decode.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void db(long startNanos) {
+            db.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.dto.WarmupProgressDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 缓存预热
+ * <p>
+ * 每个key前缀注册一个按id分页的查询，预热时一个线程按游标（上一页最后一个id）逐页查数据库，
+ * 每页交给写线程池编码、用一个 pipeline 写进 Redis，写线程之间并行，同时在处理的页数有上限，查询不会跑到写入前面太多。
+ * 注册时指定这个前缀查询时用的策略，逻辑过期的写 RedisData，缓存穿透的写带TTL的普通值，和查询时读的格式一致。
+ * 过期时间加随机时间，一起预热的key不会同时过期。启动时可以自动预热，也可以从管理接口触发、查看进度
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheWarmer {
+    private static final String RUNNING = "running";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    // key前缀 -> 数据来源，按注册顺序预热
+    private final Map<String, Source<?>> sources = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    // key前缀 -> 最近一次预热的进度
+    private final ConcurrentHashMap<String, Task> tasks = new ConcurrentHashMap<>();
+
+    // 查数据库的线程，多个前缀排队依次预热
+    private ExecutorService readerExecutor;
+
+    // 编码、写 Redis 的线程
+    private ExecutorService writerExecutor;
+
+    @PostConstruct
+    private void init() {
+        readerExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("cache-warmup-", true));
+        writerExecutor = Executors.newFixedThreadPool(Math.max(cacheProperties.getWarmup().getThreads(), 1),
+                new NamedThreadFactory("cache-warmup-writer-", true));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        readerExecutor.shutdownNow();
+        writerExecutor.shutdownNow();
+    }
+
+    // 启动完成后，各个服务都注册过了再预热
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (cacheProperties.getWarmup().isOnStartup()) {
+            warmUp(null);
+        }
+    }
+
+    /**
+     * 注册一个可以预热的key前缀
+     *
+     * @param keyPrefix  redis里的前缀，和查询时传的一样
+     * @param pageLoader (上一页最后一个id, 条数) -> 按id升序的下一页，第一页传0
+     * @param idGetter   取数据的id
+     * @param time       缓存有效期（逻辑过期时是逻辑过期时间），和查询时传的一样
+     * @param strategy   查询这个前缀时用的策略，决定写入的格式
+     */
+    public <R> void register(String keyPrefix, BiFunction<Long, Integer, List<R>> pageLoader, Function<R, Long> idGetter,
+                             Long time, TimeUnit unit, HmCached.Strategy strategy) {
+        if (sources.putIfAbsent(keyPrefix, new Source<>(pageLoader, idGetter, time, unit, strategy)) != null) {
+            throw new IllegalStateException("key前缀 " + keyPrefix + " 已经注册过预热");
+        }
+    }
+
+    /**
+     * 异步预热，正在预热的前缀不会重复开始
+     *
+     * @param keyPrefix 为null时预热所有注册过的前缀
+     * @return 这次涉及的前缀的进度
+     */
+    public List<WarmupProgressDTO> warmUp(String keyPrefix) {
+        Collection<String> prefixes;
+        synchronized (sources) {
+            prefixes = keyPrefix == null ? new ArrayList<>(sources.keySet()) : Collections.singletonList(keyPrefix);
+        }
+        List<WarmupProgressDTO> started = new ArrayList<>();
+        for (String prefix : prefixes) {
+            Source<?> source = sources.get(prefix);
+            if (source == null) {
+                throw new IllegalArgumentException("key前缀 " + prefix + " 没有注册预热");
+            }
+            Task task = tasks.compute(prefix, (k, old) -> old != null && RUNNING.equals(old.status) ? old : new Task(k));
+            if (task.queued.compareAndSet(false, true)) {
+                readerExecutor.execute(() -> run(source, task));
+            }
+            started.add(task.toDTO());
+        }
+        return started;
+    }
+
+    // 各个前缀最近一次预热的进度
+    public List<WarmupProgressDTO> progress() {
+        List<WarmupProgressDTO> progress = new ArrayList<>();
+        for (Task task : tasks.values()) {
+            progress.add(task.toDTO());
+        }
+        return progress;
+    }
+
+    private <R> void run(Source<R> source, Task task) {
+        CacheProperties.Warmup warmup = cacheProperties.getWarmup();
+        int pageSize = Math.max(warmup.getPageSize(), 1);
+        // 同时在处理的页数
+        int maxInFlight = Math.max(warmup.getThreads(), 1) * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        task.start = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            while (failure.get() == null) {
+                // 1.按游标查下一页
+                List<R> page = source.pageLoader.apply(lastId, pageSize);
+                if (page.isEmpty()) {
+                    break;
+                }
+                task.pages.increment();
+                lastId = source.idGetter.apply(page.get(page.size() - 1));
+                // 2.交给写线程编码、写入
+                inFlight.acquire();
+                writerExecutor.execute(() -> {
+                    try {
+                        write(task.keyPrefix, source, page);
+                        task.written.add(page.size());
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            // 3.等所有页写完
+            inFlight.acquire(maxInFlight);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            task.finish(DONE, null);
+            WarmupProgressDTO dto = task.toDTO();
+            log.info("缓存预热完成 keyPrefix={} written={} elapsed={}ms perSecond={}",
+                    dto.getKeyPrefix(), dto.getWritten(), dto.getElapsedMillis(), dto.getPerSecond());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.finish(FAILED, "interrupted");
+        } catch (Exception e) {
+            task.finish(FAILED, e.getMessage());
+            log.error("缓存预热失败 keyPrefix={}", task.keyPrefix, e);
+        }
+    }
+
+    private <R> void write(String keyPrefix, Source<R> source, List<R> page) {
+        Map<String, Object> values = new LinkedHashMap<>(page.size() * 2);
+        for (R r : page) {
+            values.put(keyPrefix + source.idGetter.apply(r), r);
+        }
+        double jitter = cacheProperties.getWarmup().getJitter();
+        if (source.strategy == HmCached.Strategy.LOGICAL_EXPIRE) {
+            cacheClient.setBatchWithLogicalExpire(values, source.time, source.unit, jitter);
+        } else {
+            cacheClient.setBatch(values, source.time, source.unit, jitter);
+        }
+    }
+
+    private static class Source<R> {
+        private final BiFunction<Long, Integer, List<R>> pageLoader;
+        private final Function<R, Long> idGetter;
+        private final Long time;
+        private final TimeUnit unit;
+        private final HmCached.Strategy strategy;
+
+        Source(BiFunction<Long, Integer, List<R>> pageLoader, Function<R, Long> idGetter, Long time, TimeUnit unit,
+               HmCached.Strategy strategy) {
+            this.pageLoader = pageLoader;
+            this.idGetter = idGetter;
+            this.time = time;
+            this.unit = unit;
+            this.strategy = strategy;
+        }
+    }
+
+    private static class Task {
+        private final String keyPrefix;
+        // 只提交一次
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private final LongAdder written = new LongAdder();
+        private final LongAdder pages = new LongAdder();
+        private volatile String status = RUNNING;
+        // 排队时为0
+        private volatile long start;
+        private volatile long end;
+        private volatile String error;
+
+        Task(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        void finish(String status, String error) {
+            this.end = System.currentTimeMillis();
+            this.error = error;
+            this.status = status;
+        }
+
+        WarmupProgressDTO toDTO() {
+            WarmupProgressDTO dto = new WarmupProgressDTO();
+            dto.setKeyPrefix(keyPrefix);
+            dto.setStatus(status);
+            dto.setWritten(written.sum());
+            dto.setPages(pages.sum());
+            long begin = start;
+            long elapsed = begin == 0 ? 0 : (end == 0 ? System.currentTimeMillis() : end) - begin;
+            dto.setStartTime(begin == 0 ? null : begin);
+            dto.setElapsedMillis(elapsed);
+            dto.setPerSecond(elapsed == 0 ? 0 : dto.getWritten() * 1000 / elapsed);
+            dto.setError(error);
+            return dto;
+        }
+    }
+}
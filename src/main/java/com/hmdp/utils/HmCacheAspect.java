@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link HmCached} 和 {@link HmCacheEvict} 的切面，把方法调用转给 CacheClient
+ * <p>
+ * 注解、参数位置、返回值类型在第一次调用时按 Method 解析并校验一次，之后每次调用只查一次 map、按下标取参数拼key，
+ * 不再读注解、也不用表达式解析
+ * </p>
+ */
+@Aspect
+@Component
+public class HmCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    // 方法 -> 解析好的缓存配置
+    private final ConcurrentHashMap<Method, CachedMethod> cachedMethods = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, EvictMethod> evictMethods = new ConcurrentHashMap<>();
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint pjp, HmCached cached) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        CachedMethod m = cachedMethods.get(method);
+        if (m == null) {
+            m = cachedMethods.computeIfAbsent(method, k -> new CachedMethod(k, cached));
+        }
+        Object id = pjp.getArgs()[m.keyIndex];
+        // id为空不走缓存
+        if (id == null) {
+            return pjp.proceed();
+        }
+        // 逻辑过期时数据库查询可能在重建线程里执行，proceed 每次会复制一份调用链，可以在别的线程调用
+        Function<Object, Object> dbFallback = k -> proceed(pjp);
+        if (m.strategy == HmCached.Strategy.LOGICAL_EXPIRE) {
+            return cacheClient.queryWithLogicalExpire(m.prefix, id, m.type, dbFallback, m.ttl, m.unit);
+        }
+        return cacheClient.queryWithPassThrough(m.prefix, id, m.type, dbFallback, m.ttl, m.unit);
+    }
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, HmCacheEvict evict) {
+        Method method = ((MethodSignature) jp.getSignature()).getMethod();
+        EvictMethod m = evictMethods.get(method);
+        if (m == null) {
+            m = evictMethods.computeIfAbsent(method, k -> new EvictMethod(k, evict));
+        }
+        Object id = jp.getArgs()[m.keyIndex];
+        if (id != null) {
+            cacheInvalidator.invalidate(m.prefix + id);
+        }
+    }
+
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 参数下标超出范围时启动后第一次调用就报错
+    private static int checkKeyIndex(Method method, int keyIndex) {
+        if (keyIndex < 0 || keyIndex >= method.getParameterCount()) {
+            throw new IllegalStateException(method + " 没有第 " + keyIndex + " 个参数，不能作为缓存key");
+        }
+        return keyIndex;
+    }
+
+    private static class CachedMethod {
+        private final String prefix;
+        private final Long ttl;
+        private final TimeUnit unit;
+        private final HmCached.Strategy strategy;
+        private final int keyIndex;
+        private final Class<Object> type;
+
+        @SuppressWarnings("unchecked")
+        CachedMethod(Method method, HmCached cached) {
+            Class<?> returnType = method.getReturnType();
+            if (returnType.isPrimitive()) {
+                throw new IllegalStateException(method + " 的返回值不能缓存");
+            }
+            this.prefix = cached.prefix();
+            this.ttl = cached.ttl();
+            this.unit = cached.unit();
+            this.strategy = cached.strategy();
+            this.keyIndex = checkKeyIndex(method, cached.key());
+            this.type = (Class<Object>) returnType;
+        }
+    }
+
+    private static class EvictMethod {
+        private final String prefix;
+        private final int keyIndex;
+
+        EvictMethod(Method method, HmCacheEvict evict) {
+            this.prefix = evict.prefix();
+            this.keyIndex = checkKeyIndex(method, evict.key());
+        }
+    }
+}
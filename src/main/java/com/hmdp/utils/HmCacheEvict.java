@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存 prefix + 第 key 个参数，所有节点的本地缓存一起删除；方法抛异常时不删除。
+ * 在事务里时等事务提交后再删除（见 CacheInvalidator）
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheEvict {
+
+    /**
+     * redis里的key前缀，和 {@link HmCached#prefix()} 一样
+     */
+    String prefix();
+
+    /**
+     * 第几个参数是id，从0开始
+     */
+    int key() default 0;
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法的返回值通过 CacheClient 缓存：key = prefix + 第 key 个参数，返回值类型就是缓存的类型
+ * <p>
+ * 方法要通过 Spring 代理调用（类内调用用 AopContext.currentProxy()），返回的对象可能是本地缓存里共享的那一个，调用方不要修改
+ * </p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCached {
+
+    /**
+     * redis里的key前缀
+     */
+    String prefix();
+
+    /**
+     * 缓存有效期，逻辑过期时是逻辑过期时间
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    Strategy strategy() default Strategy.PASS_THROUGH;
+
+    /**
+     * 第几个参数是id，从0开始
+     */
+    int key() default 0;
+
+    enum Strategy {
+        /**
+         * 缓存空值解决缓存穿透，没命中时同步查数据库
+         */
+        PASS_THROUGH,
+        /**
+         * 逻辑过期解决缓存击穿，过期后异步重建。没命中直接返回null，要先预热（见 CacheWarmer）
+         */
+        LOGICAL_EXPIRE
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.HotKeyDTO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * 热点key探测：按采样率记录访问，用 Count-Min Sketch 估计每个key在滑动窗口内的访问次数
+ * <p>
+ * 窗口到期后当前的 sketch 变成上一个，估计值 = 当前窗口 + 上一个窗口 × 还没滑出去的比例。
+ * 估计值达到阈值的key提升为热点，窗口切换时降到阈值一半以下的降级，两个阈值错开避免来回抖动。
+ * 另外记录估计值最大的 topK 个key，给管理接口看
+ * </p>
+ */
+public class HotKeyDetector {
+    private final int width;
+    private final int depth;
+    private final long windowMillis;
+    private final long threshold;
+    private final int sampleRate;
+    private final int topK;
+    // 热点key降级时回调，CacheClient 删掉热点副本
+    private final Consumer<String> onDemote;
+
+    private volatile Sketch current;
+    private volatile Sketch previous;
+
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+
+    // 估计值最大的一批key -> 进来时（或者上次窗口切换时）的估计值，最多 topK 个。
+    // 已经在里面的key不再更新，热点key的每次访问不用加锁，查询时再重新估计
+    private final ConcurrentHashMap<String, Long> top = new ConcurrentHashMap<>();
+    // top 里最小的估计值，比它小的不用去动 top
+    private volatile long topMin;
+
+    public HotKeyDetector(int width, int depth, long windowMillis, long threshold, int sampleRate, int topK,
+                          Consumer<String> onDemote) {
+        this.width = width;
+        this.depth = depth;
+        this.windowMillis = windowMillis;
+        this.threshold = threshold;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.topK = topK;
+        this.onDemote = onDemote;
+        long now = System.currentTimeMillis();
+        this.previous = new Sketch(now - windowMillis);
+        this.current = new Sketch(now);
+    }
+
+    /**
+     * 记录一次访问，返回这个key现在是不是热点
+     */
+    public boolean record(String key) {
+        long now = System.currentTimeMillis();
+        Sketch sketch = current;
+        if (now - sketch.start >= windowMillis) {
+            sketch = rotate(now);
+        }
+        // 没抽中的访问不记
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return hotKeys.contains(key);
+        }
+        long estimate = (sketch.add(key) + weightedPrevious(key, now, sketch)) * sampleRate;
+        if ((estimate > topMin || top.size() < topK) && !top.containsKey(key)) {
+            offerTop(key, estimate, now, sketch);
+        }
+        if (estimate >= threshold) {
+            hotKeys.add(key);
+            return true;
+        }
+        return hotKeys.contains(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    public int hotCount() {
+        return hotKeys.size();
+    }
+
+    // 当前估计值最大的 topK 个key，按估计值从大到小
+    public List<HotKeyDTO> topKeys() {
+        long now = System.currentTimeMillis();
+        Sketch sketch = current;
+        if (now - sketch.start >= windowMillis) {
+            sketch = rotate(now);
+        }
+        List<HotKeyDTO> keys = new ArrayList<>();
+        for (String key : top.keySet()) {
+            keys.add(new HotKeyDTO(key, estimate(key, now, sketch), hotKeys.contains(key)));
+        }
+        keys.sort(Comparator.comparing(HotKeyDTO::getCount).reversed());
+        return keys;
+    }
+
+    private long estimate(String key, long now, Sketch sketch) {
+        return (sketch.estimate(key) + weightedPrevious(key, now, sketch)) * sampleRate;
+    }
+
+    // 上一个窗口还没滑出去的部分
+    private long weightedPrevious(String key, long now, Sketch sketch) {
+        double remaining = 1 - (double) (now - sketch.start) / windowMillis;
+        return remaining <= 0 ? 0 : (long) (previous.estimate(key) * remaining);
+    }
+
+    // 窗口到期，换一个新的 sketch，顺便把冷下来的热点key降级
+    private synchronized Sketch rotate(long now) {
+        Sketch sketch = current;
+        if (now - sketch.start < windowMillis) {
+            return sketch;
+        }
+        // 很久没有访问时上一个窗口也已经整个滑出去了
+        previous = now - sketch.start >= windowMillis * 2 ? new Sketch(now - windowMillis) : sketch;
+        current = new Sketch(sketch.start + (now - sketch.start) / windowMillis * windowMillis);
+        // 新窗口刚开始，估计值就是上一个窗口的计数
+        for (String key : hotKeys) {
+            if (previous.estimate(key) * sampleRate < threshold / 2) {
+                hotKeys.remove(key);
+                onDemote.accept(key);
+            }
+        }
+        synchronized (top) {
+            top.replaceAll((key, count) -> previous.estimate(key) * sampleRate);
+            top.values().removeIf(count -> count == 0);
+            topMin = top.values().stream().mapToLong(Long::longValue).min().orElse(0);
+        }
+        return current;
+    }
+
+    private void offerTop(String key, long estimate, long now, Sketch sketch) {
+        synchronized (top) {
+            if (top.containsKey(key)) {
+                return;
+            }
+            if (top.size() < topK) {
+                top.put(key, estimate);
+            } else {
+                // 满了就替换掉最小的。记下的估计值可能已经过时，先按现在的重新估计，
+                // 之后 topMin 跟着变大，不会每次都走到这里
+                top.replaceAll((k, count) -> estimate(k, now, sketch));
+                Map.Entry<String, Long> min = null;
+                for (Map.Entry<String, Long> e : top.entrySet()) {
+                    if (min == null || e.getValue() < min.getValue()) {
+                        min = e;
+                    }
+                }
+                if (min != null && min.getValue() < estimate) {
+                    top.remove(min.getKey());
+                    top.put(key, estimate);
+                }
+            }
+            topMin = top.size() < topK ? 0 : top.values().stream().mapToLong(Long::longValue).min().orElse(0);
+        }
+    }
+
+    /**
+     * 一个窗口的 Count-Min Sketch：depth 行 × width 列的计数器，每行用不同的哈希，估计值取各行的最小值
+     */
+    private class Sketch {
+        private final long start;
+        private final AtomicLongArray counters = new AtomicLongArray(width * depth);
+
+        Sketch(long start) {
+            this.start = start;
+        }
+
+        long add(String key) {
+            long min = Long.MAX_VALUE;
+            int h1 = key.hashCode();
+            int h2 = spread(h1);
+            for (int i = 0; i < depth; i++) {
+                min = Math.min(min, counters.incrementAndGet(i * width + index(h1, h2, i)));
+            }
+            return min;
+        }
+
+        long estimate(String key) {
+            long min = Long.MAX_VALUE;
+            int h1 = key.hashCode();
+            int h2 = spread(h1);
+            for (int i = 0; i < depth; i++) {
+                min = Math.min(min, counters.get(i * width + index(h1, h2, i)));
+            }
+            return min;
+        }
+
+        private int index(int h1, int h2, int i) {
+            return ((h1 + i * h2) & Integer.MAX_VALUE) % width;
+        }
+    }
+
+    // 第二个哈希：把 hashCode 再打散一次
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return (h ^ h >>> 16) | 1;
+    }
+}
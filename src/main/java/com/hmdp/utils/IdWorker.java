@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成器，id的高32位是秒级时间戳，整体按时间递增
+ * <p>
+ * hmdp.id.mode=redis（默认）用 RedisIdWorker，序列号来自 Redis 里按天的计数器；
+ * hmdp.id.mode=snowflake 用 SnowflakeIdWorker，只在启动时去 Redis 租一个机器号，生成id不再访问 Redis
+ * </p>
+ */
+public interface IdWorker {
+    /**
+     * 生成一个id
+     * @param keyPrefix 业务前缀，比如订单业务就是 order
+     */
+    long nextId(String keyPrefix);
+
+    /**
+     * 批量生成 n 个id，按生成顺序递增
+     * @param keyPrefix 业务前缀
+     * @param n 个数
+     */
+    long[] nextIds(String keyPrefix, int n);
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 本节点内存里的布隆过滤器，按预计元素个数和误判率计算位数组大小和哈希函数个数。
+ * 只能添加不能删除，添加和查询都不加锁；删除数据后靠定时重建把多余的位清掉
+ */
+public class LocalBloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计元素个数
+     * @param fpp                期望的误判率
+     * @param maxBits            位数组最多占用的位数，超过则按这个大小分配，误判率会变高
+     */
+    public LocalBloomFilter(long expectedInsertions, double fpp, long maxBits) {
+        long n = Math.max(expectedInsertions, 1);
+        // m = -n·ln(p) / (ln2)²，k = m/n·ln2
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(Math.min(m, maxBits), Long.SIZE);
+        this.bits = new AtomicLongArray((int) ((m + Long.SIZE - 1) / Long.SIZE));
+        this.bitSize = (long) bits.length() * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    public void add(String value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hash, i);
+            int slot = (int) (index >>> 6);
+            long mask = 1L << index;
+            long word;
+            while (((word = bits.get(slot)) & mask) == 0 && !bits.compareAndSet(slot, word, word | mask)) {
+                // CAS 失败说明其他线程改了同一个long，重试
+            }
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hash, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 位数组占用的字节数
+    public long byteSize() {
+        return bitSize / Byte.SIZE;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private static long[] hash(String value) {
+        return MurmurHash.hash128(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 用两个哈希值组合出第i个哈希函数：h1 + i·h2
+    private long index(long[] hash, int i) {
+        return ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bitSize;
+    }
+}
@@ -0,0 +1,385 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 秒杀订单的本地日志（write-ahead journal）
+ * <p>
+ * 数据库不可用时，消费者把订单追加到本地日志后确认消息，数据库恢复后由 OrderJournalReplayer 按批回放落库。<br>
+ * 日志分段存放为 journal-{序号}.log，每段固定大小，用内存映射写入，写满后切换到下一段，回放完的段直接删掉，
+ * 未回放的段数有上限，写满后不再接收。<br>
+ * 每条记录32字节：长度(4) + CRC32(4) + 订单id(8) + 用户id(8) + 券id(8)，长度为0表示这一段后面没有数据了。
+ * 回放进度保存在 checkpoint 文件里，订单落库之后才推进；崩溃后从上次的进度重新回放，靠插入去重保证不会重复下单。<br>
+ * 启动时从回放进度开始逐条校验 CRC，最后一段里写了一半的记录连同后面的内容一起清零
+ * </p>
+ * 写入可以多个线程并发，读取（read、commit）只能由一个线程执行
+ */
+@Slf4j
+@Component
+public class OrderJournal {
+
+    private static final int PAYLOAD_SIZE = 24;
+    public static final int RECORD_SIZE = 8 + PAYLOAD_SIZE;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Path dir;
+
+    // 新建段的大小，按记录大小取整
+    private int segmentSize;
+
+    // 所有还没删掉的段，序号 -> 文件
+    private final ConcurrentSkipListMap<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+
+    // 正在写入的段
+    private long writeSeq;
+    private MappedByteBuffer writeBuffer;
+    private final ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_SIZE);
+
+    // 已经写完、刷盘的位置，读取不会越过它
+    private volatile Position writePosition;
+
+    // 已经落库的位置（checkpoint），以及上一次 read 读到的位置
+    private volatile Position readPosition;
+    private Position pendingPosition;
+    private int pendingCount;
+
+    // 还没回放的记录数
+    private final AtomicLong backlog = new AtomicLong();
+
+    private Counter appendedCounter;
+
+    private Counter replayedCounter;
+
+    private Counter fullCounter;
+
+    private static class Position {
+        private final long seq;
+        private final int offset;
+
+        Position(long seq, int offset) {
+            this.seq = seq;
+            this.offset = offset;
+        }
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        appendedCounter = meterRegistry.counter("seckill.order.journal.appended");
+        replayedCounter = meterRegistry.counter("seckill.order.journal.replayed");
+        fullCounter = meterRegistry.counter("seckill.order.journal.full");
+        Gauge.builder("seckill.order.journal.backlog", backlog, AtomicLong::get)
+                .description("本地日志里还没回放的订单数").register(meterRegistry);
+        Gauge.builder("seckill.order.journal.segments", segments, ConcurrentSkipListMap::size)
+                .description("本地日志的段数").register(meterRegistry);
+        if (seckillProperties.getJournal().isEnabled()) {
+            open();
+        }
+    }
+
+    // 打开日志目录，从回放进度开始校验记录，恢复写入位置和未回放的记录数
+    public synchronized void open() throws IOException {
+        SeckillProperties.Journal props = seckillProperties.getJournal();
+        dir = Paths.get(props.getDir());
+        Files.createDirectories(dir);
+        segmentSize = (int) Math.min(props.getSegmentSize().toBytes() / RECORD_SIZE * RECORD_SIZE, Integer.MAX_VALUE / RECORD_SIZE * RECORD_SIZE);
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("hmdp.seckill.journal.segment-size 太小");
+        }
+        // 1.读取回放进度，进度之前的段已经回放完了，直接删掉
+        Position checkpoint = loadCheckpoint();
+        List<Long> seqs = listSegments();
+        for (Long seq : seqs) {
+            if (checkpoint != null && seq < checkpoint.seq) {
+                Files.deleteIfExists(segmentPath(seq));
+                continue;
+            }
+            segments.put(seq, FileChannel.open(segmentPath(seq), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        if (segments.isEmpty()) {
+            long seq = checkpoint == null ? 0 : checkpoint.seq;
+            segments.put(seq, FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        if (checkpoint == null || !segments.containsKey(checkpoint.seq)) {
+            checkpoint = new Position(segments.firstKey(), 0);
+        }
+        // 2.从回放进度开始逐段校验，统计没回放的记录数
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        long count = 0;
+        int end = 0;
+        for (Long seq : segments.keySet()) {
+            FileChannel ch = segments.get(seq);
+            int offset = seq == checkpoint.seq ? checkpoint.offset : 0;
+            while (readRecord(ch, offset, buf) != null) {
+                count++;
+                offset += RECORD_SIZE;
+            }
+            end = offset;
+            if (seq != segments.lastKey() && hasData(ch, offset, buf)) {
+                log.error("订单日志 {} 在 {} 处校验失败，这一段后面的记录无法回放", segmentPath(seq), offset);
+            }
+        }
+        // 3.最后一段是崩溃前正在写的段，写了一半的记录和后面的内容清零后接着写
+        writeSeq = segments.lastKey();
+        FileChannel last = segments.get(writeSeq);
+        long size = last.size() >= RECORD_SIZE ? last.size() / RECORD_SIZE * RECORD_SIZE : segmentSize;
+        writeBuffer = last.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (hasData(last, end, buf)) {
+            log.warn("订单日志 {} 在 {} 处有写了一半的记录，清零后继续写入", segmentPath(writeSeq), end);
+            for (int i = end; i < writeBuffer.capacity(); i++) {
+                writeBuffer.put(i, (byte) 0);
+            }
+            writeBuffer.force();
+        }
+        writeBuffer.position(end);
+        writePosition = new Position(writeSeq, end);
+        readPosition = checkpoint;
+        pendingPosition = checkpoint;
+        pendingCount = 0;
+        backlog.set(count);
+        if (count > 0) {
+            log.info("订单日志恢复完成，{} 条订单等待回放", count);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (writeBuffer == null) {
+            return;
+        }
+        writeBuffer.force();
+        writeBuffer = null;
+        for (FileChannel ch : segments.values()) {
+            ch.close();
+        }
+        segments.clear();
+    }
+
+    public boolean isEnabled() {
+        return writeBuffer != null;
+    }
+
+    // 日志里还有没回放的订单
+    public boolean hasBacklog() {
+        return backlog.get() > 0;
+    }
+
+    public long backlog() {
+        return backlog.get();
+    }
+
+    /**
+     * 追加一批订单并刷盘，返回 true 之后才能确认消息。
+     * 剩余空间不够写下整批时一条都不写，返回 false
+     */
+    public synchronized boolean append(List<VoucherOrder> orders) {
+        if (writeBuffer == null) {
+            return false;
+        }
+        if (orders.isEmpty()) {
+            return true;
+        }
+        // 1.当前段剩下的加上还能新建的段，放不下整批就拒绝
+        long fit = writeBuffer.remaining() / RECORD_SIZE
+                + (long) (seckillProperties.getJournal().getMaxSegments() - segments.size()) * (segmentSize / RECORD_SIZE);
+        if (orders.size() > fit) {
+            fullCounter.increment();
+            return false;
+        }
+        try {
+            // 2.逐条写入，当前段写满就切换到下一段
+            for (VoucherOrder order : orders) {
+                if (writeBuffer.remaining() < RECORD_SIZE) {
+                    roll();
+                }
+                write(order);
+            }
+            // 3.刷盘后才算写入成功
+            writeBuffer.force();
+        } catch (IOException e) {
+            log.error("写入订单日志失败", e);
+            return false;
+        }
+        writePosition = new Position(writeSeq, writeBuffer.position());
+        backlog.addAndGet(orders.size());
+        appendedCounter.increment(orders.size());
+        return true;
+    }
+
+    /**
+     * 从回放进度开始最多读 max 条订单。落库后调用 commit 推进进度，不调用的话下次 read 还会读到这一批
+     */
+    public List<VoucherOrder> read(int max) throws IOException {
+        List<VoucherOrder> orders = new ArrayList<>();
+        Position end = writePosition;
+        Position p = readPosition;
+        if (end == null) {
+            return orders;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        while (orders.size() < max) {
+            boolean active = p.seq == end.seq;
+            if (active && p.offset >= end.offset) {
+                break;
+            }
+            FileChannel ch = segments.get(p.seq);
+            VoucherOrder order = ch == null ? null : readRecord(ch, p.offset, buf);
+            if (order == null) {
+                // 这一段读完了，接着读下一段
+                Long next = segments.higherKey(p.seq);
+                if (active || next == null) {
+                    break;
+                }
+                p = new Position(next, 0);
+                continue;
+            }
+            orders.add(order);
+            p = new Position(p.seq, p.offset + RECORD_SIZE);
+        }
+        pendingPosition = p;
+        pendingCount = orders.size();
+        return orders;
+    }
+
+    // 上一次 read 读出的订单已经落库，推进回放进度，删掉回放完的段
+    public void commit() throws IOException {
+        Position p = pendingPosition;
+        saveCheckpoint(p);
+        readPosition = p;
+        backlog.addAndGet(-pendingCount);
+        replayedCounter.increment(pendingCount);
+        pendingCount = 0;
+        for (Long seq : new ArrayList<>(segments.headMap(p.seq).keySet())) {
+            FileChannel ch = segments.remove(seq);
+            if (ch != null) {
+                ch.close();
+            }
+            Files.deleteIfExists(segmentPath(seq));
+        }
+    }
+
+    private void write(VoucherOrder order) {
+        payload.clear();
+        payload.putLong(order.getId()).putLong(order.getUserId()).putLong(order.getVoucherId());
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, PAYLOAD_SIZE);
+        int start = writeBuffer.position();
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+        writeBuffer.position(start + 8);
+        writeBuffer.put(payload);
+        // 长度最后写，读到长度不为0的记录，内容一定已经写完了
+        writeBuffer.putInt(start, PAYLOAD_SIZE);
+    }
+
+    // 当前段写满，刷盘后新建下一段
+    private void roll() throws IOException {
+        writeBuffer.force();
+        long seq = writeSeq + 1;
+        FileChannel ch = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeBuffer = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segments.put(seq, ch);
+        writeSeq = seq;
+    }
+
+    // 读出 offset 处的一条记录，没有数据或校验失败时返回 null
+    private static VoucherOrder readRecord(FileChannel ch, int offset, ByteBuffer buf) throws IOException {
+        if (!readFully(ch, offset, buf)) {
+            return null;
+        }
+        int length = buf.getInt();
+        int checksum = buf.getInt();
+        if (length != PAYLOAD_SIZE) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 8, PAYLOAD_SIZE);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return new VoucherOrder().setId(buf.getLong()).setUserId(buf.getLong()).setVoucherId(buf.getLong());
+    }
+
+    // offset 处是否有写过的内容（长度或校验和不为0）
+    private static boolean hasData(FileChannel ch, int offset, ByteBuffer buf) throws IOException {
+        return readFully(ch, offset, buf) && (buf.getInt() != 0 || buf.getInt() != 0);
+    }
+
+    private static boolean readFully(FileChannel ch, int offset, ByteBuffer buf) throws IOException {
+        if (offset + RECORD_SIZE > ch.size()) {
+            return false;
+        }
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0) {
+                return false;
+            }
+        }
+        buf.flip();
+        return true;
+    }
+
+    // 先写临时文件再原子替换，崩溃时 checkpoint 要么是旧的、要么是新的
+    private void saveCheckpoint(Position p) throws IOException {
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap((p.seq + " " + p.offset).getBytes(StandardCharsets.UTF_8)));
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Position loadCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        String[] parts = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(" ");
+        return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> seqs.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        seqs.sort(null);
+        return seqs;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+}
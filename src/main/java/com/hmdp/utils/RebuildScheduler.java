@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存重建的调度：所有key前缀共用一个线程池，每个前缀同时执行的重建数有上限
+ * <p>
+ * 1.同一个key已经在排队或者正在重建时，不再提交，调用方直接返回旧数据<br>
+ * 2.一个前缀执行中的任务达到上限后，新任务在这个前缀自己的队列里等，前一个结束后接着执行，
+ * 某个前缀的重建风暴最多占用它自己的上限个线程，不会饿死其他前缀<br>
+ * 3.所有前缀排队的任务总数有上限，满了拒绝，调用方放掉锁返回旧数据<br>
+ * 4.关闭时不再接收新任务，等已经提交的执行完，超时后丢弃剩下的（它们持有的锁到期自动释放）
+ * </p>
+ */
+@Slf4j
+public class RebuildScheduler {
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final int defaultLimit;
+    // key前缀 -> 同时执行数上限，没配置的用 defaultLimit
+    private final Map<String, Integer> prefixLimits;
+
+    // key前缀 -> 这个前缀的执行数和等待队列
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    // 已经提交、还没执行完的key
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // 所有前缀排队的任务数
+    private final AtomicInteger waiting = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final Counter duplicated;
+    private final Counter queueFull;
+    private final Counter shuttingDown;
+
+    public RebuildScheduler(int threads, int queueCapacity, int defaultLimit, Map<String, Integer> prefixLimits,
+                            MeterRegistry meterRegistry) {
+        this.queueCapacity = queueCapacity;
+        this.defaultLimit = Math.max(defaultLimit, 1);
+        this.prefixLimits = prefixLimits;
+        // 每个前缀同时交给线程池的任务不超过它的上限，线程池本身的队列不用再限制
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("cache-rebuild-", true));
+        this.duplicated = rejectedCounter(meterRegistry, "duplicate");
+        this.queueFull = rejectedCounter(meterRegistry, "queue");
+        this.shuttingDown = rejectedCounter(meterRegistry, "shutdown");
+        Gauge.builder("cache.rebuild.queue", this, s -> s.waiting.get() + s.executor.getQueue().size())
+                .description("排队等待重建的任务数")
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在重建的任务数")
+                .register(meterRegistry);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("cache.rebuild.rejected")
+                .tag("reason", reason)
+                .description("没有提交的重建任务数")
+                .register(meterRegistry);
+    }
+
+    // 这个key是否已经在排队或者正在重建
+    public boolean isPending(String key) {
+        return pending.contains(key);
+    }
+
+    /**
+     * 提交一个重建任务
+     *
+     * @param keyPrefix 按前缀限制同时执行数
+     * @param keys      任务要重建的key，其中有已经提交过的就不提交
+     * @return 没有提交时返回false，调用方负责释放已经拿到的锁
+     */
+    public boolean submit(String keyPrefix, Collection<String> keys, Runnable task) {
+        if (closed) {
+            shuttingDown.increment();
+            return false;
+        }
+        // 1.去重
+        List<String> added = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (!pending.add(key)) {
+                pending.removeAll(added);
+                duplicated.increment();
+                return false;
+            }
+            added.add(key);
+        }
+        Runnable wrapped = () -> {
+            try {
+                task.run();
+            } finally {
+                pending.removeAll(added);
+            }
+        };
+        // 2.前缀没到上限直接执行，到了就在前缀的队列里等
+        Lane lane = lanes.computeIfAbsent(keyPrefix, k -> new Lane(prefixLimits.getOrDefault(k, defaultLimit)));
+        synchronized (lane) {
+            if (lane.running < lane.limit) {
+                lane.running++;
+            } else if (waiting.incrementAndGet() <= queueCapacity) {
+                lane.queue.add(wrapped);
+                return true;
+            } else {
+                waiting.decrementAndGet();
+                pending.removeAll(added);
+                queueFull.increment();
+                return false;
+            }
+        }
+        try {
+            executor.execute(() -> runLane(lane, wrapped));
+        } catch (RejectedExecutionException e) {
+            // 和 shutdown 并发，线程池已经关了
+            synchronized (lane) {
+                lane.running--;
+            }
+            pending.removeAll(added);
+            shuttingDown.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // 执行完一个任务接着执行同一个前缀排队的下一个，没有了才让出名额
+    private void runLane(Lane lane, Runnable task) {
+        while (task != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("缓存重建任务异常", e);
+            }
+            synchronized (lane) {
+                task = lane.queue.poll();
+                if (task == null) {
+                    lane.running--;
+                } else {
+                    waiting.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 不再接收新任务，最多等 timeout 让已经提交的任务执行完
+     */
+    public void shutdown(Duration timeout) {
+        closed = true;
+        // 前缀队列里排队的任务由同一个前缀正在执行的线程接着执行，线程池结束时也就执行完了
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("缓存重建任务没有在 {} 内执行完，丢弃 {} 个排队的任务", timeout, waiting.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Lane {
+        private final int limit;
+        // 正在执行（已经交给线程池）的任务数
+        private int running;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+
+        Lane(int limit) {
+            this.limit = Math.max(limit, 1);
+        }
+    }
+}
@@ -7,4 +7,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    // 上一次重建缓存（查询数据库）的耗时，毫秒，提前刷新时用来计算概率
+    private Long rebuildCost;
 }
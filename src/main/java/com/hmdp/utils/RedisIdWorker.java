@@ -1,21 +1,32 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Classname: RedisIdWorker
  * @author: wanyu
  * @Date: 2022/6/24 16:41
  */
-
+@Slf4j
 @Component
-public class RedisIdWorker {
+@ConditionalOnProperty(prefix = "hmdp.id", name = "mode", havingValue = "redis", matchIfMissing = true)
+public class RedisIdWorker implements IdWorker {
     /**
      * 开始时间戳，2022.01.01 00:00:00
      */
@@ -25,10 +36,22 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private IdWorkerProperties idWorkerProperties;
+
+    // 号段模式下每个业务前缀的号段
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    // 异步预取号段的线程
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
     // keyPrefix 是业务前缀，不同的业务有不同的id，比如订单业务就是 order:...
+    @Override
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -37,10 +60,126 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        // 2.2.自增长，号段模式下从本地号段里取
+        long count = idWorkerProperties.getSegment().isEnabled()
+                ? nextCount(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment(key(keyPrefix, date));
         // 3.拼接并返回：先左移32位再把低32位或上
         return timestamp << COUNT_BITS | count;
     }
+
+    // 批量生成：号段模式下从本地号段里连续取，否则一次 INCRBY n 取一段序列号
+    @Override
+    public long[] nextIds(String keyPrefix, int n) {
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        String date = now.format(DATE_FORMATTER);
+        long[] ids = new long[n];
+        if (n == 0) {
+            return ids;
+        }
+        if (idWorkerProperties.getSegment().isEnabled()) {
+            for (int i = 0; i < n; i++) {
+                ids[i] = timestamp << COUNT_BITS | nextCount(keyPrefix, date);
+            }
+            return ids;
+        }
+        long end = stringRedisTemplate.opsForValue().increment(key(keyPrefix, date), n);
+        for (int i = 0; i < n; i++) {
+            ids[i] = timestamp << COUNT_BITS | (end - n + 1 + i);
+        }
+        return ids;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private static String key(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    /**
+     * 一段预留好的序列号 (end - step, end]，和逐个 INCR 用的是同一个key，两种模式混用、多个节点同时分配也不会重复
+     */
+    private static class Segment {
+        private final String date;
+        private final long end;
+        private final AtomicLong cursor;
+        // 分配到这个序列号时开始预取下一段
+        private final long prefetchAt;
+
+        Segment(String date, long end, int step, double prefetchRatio) {
+            this.date = date;
+            this.end = end;
+            long start = end - step + 1;
+            this.cursor = new AtomicLong(start);
+            this.prefetchAt = start + Math.min((long) (step * prefetchRatio), step - 1);
+        }
+    }
+
+    // 一个业务前缀正在用的号段，以及预取好的下一段
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private CompletableFuture<Segment> next;
+    }
+
+    private long nextCount(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            // 1.当前号段是今天的、还没用完，无锁分配
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.end) {
+                    // 只有一个线程会拿到 prefetchAt 这个号
+                    if (count == segment.prefetchAt) {
+                        prefetch(buffer, keyPrefix, date);
+                    }
+                    return count;
+                }
+            }
+            // 2.号段用完了或者日期变了，加锁切换到下一段，其他线程已经切换过就直接重试
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    buffer.current = switchSegment(buffer, keyPrefix, date);
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, String date) {
+        synchronized (buffer) {
+            if (buffer.next == null) {
+                buffer.next = CompletableFuture.supplyAsync(() -> allocate(keyPrefix, date), prefetchExecutor);
+            }
+        }
+    }
+
+    // 优先用预取好的号段，预取失败或者日期已经变了就丢掉，同步再取一段
+    private Segment switchSegment(SegmentBuffer buffer, String keyPrefix, String date) {
+        CompletableFuture<Segment> next = buffer.next;
+        buffer.next = null;
+        if (next != null) {
+            try {
+                Segment segment = next.join();
+                if (segment.date.equals(date)) {
+                    return segment;
+                }
+            } catch (Exception e) {
+                log.warn("预取号段失败, keyPrefix={}", keyPrefix, e);
+            }
+        }
+        return allocate(keyPrefix, date);
+    }
+
+    // INCRBY icr:{keyPrefix}:{date} step，预留一段序列号
+    private Segment allocate(String keyPrefix, String date) {
+        IdWorkerProperties.Segment props = idWorkerProperties.getSegment();
+        int step = Math.max(props.getStep(), 1);
+        Long end = stringRedisTemplate.opsForValue().increment(key(keyPrefix, date), step);
+        return new Segment(date, end, step, props.getPrefetchRatio());
+    }
 }
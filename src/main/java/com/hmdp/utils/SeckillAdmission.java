@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKET_KEY;
+
+/**
+ * 秒杀请求准入控制
+ * <p>
+ * 在登录校验、分配订单id、执行lua脚本之前，先用本地数据挡掉大部分注定失败的请求：<br>
+ * 1.本节点已标记售罄、或者不在秒杀时间内的，直接拒绝<br>
+ * 2.每张券一个本地令牌桶，每秒放行 剩余库存×倍数 个请求，剩余库存定时采样，库存越少放行越少；
+ * 令牌桶只用一个 AtomicLong 记录"下一个令牌的时间"（GCRA），CAS 更新，不加锁<br>
+ * 3.可选再经过 Redis 上的全局令牌桶，控制整个集群的放行量
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    // 令牌桶超过这个时长没有请求，就不再采样、移除
+    private static final long IDLE_EVICT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private static final DefaultRedisScript<Long> BUCKET_SCRIPT;
+    static {
+        BUCKET_SCRIPT = new DefaultRedisScript<>();
+        BUCKET_SCRIPT.setLocation(new ClassPathResource("seckill_bucket.lua"));
+        BUCKET_SCRIPT.setResultType(Long.class);
+    }
+
+    // voucherId -> 本地令牌桶
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    private Counter admittedCounter;
+    private Counter soldOutCounter;
+    private Counter outOfWindowCounter;
+    private Counter throttledCounter;
+
+    private static class Bucket {
+        // 下一个令牌可用的时间（纳秒），比当前时间早说明桶里攒了令牌
+        private final AtomicLong nextFreeNanos = new AtomicLong();
+        // 两个令牌之间的间隔，即 1 / 每秒放行数
+        private volatile long intervalNanos;
+        // 最多能提前透支多久的令牌，即桶的容量 × 间隔
+        private volatile long burstNanos;
+        // 每秒放行数，全局令牌桶也用它
+        private volatile double rate;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        boolean tryAcquire(long now) {
+            for (;;) {
+                long next = nextFreeNanos.get();
+                long after = Math.max(next, now) + intervalNanos;
+                if (after - now > burstNanos) {
+                    return false;
+                }
+                if (nextFreeNanos.compareAndSet(next, after)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        admittedCounter = meterRegistry.counter("seckill.admission", "result", "admitted");
+        soldOutCounter = meterRegistry.counter("seckill.admission", "result", "sold_out");
+        outOfWindowCounter = meterRegistry.counter("seckill.admission", "result", "out_of_window");
+        throttledCounter = meterRegistry.counter("seckill.admission", "result", "throttled");
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-admission-", true));
+        long interval = seckillProperties.getAdmission().getRefreshInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::refreshAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 判断是否放行这个秒杀请求
+     *
+     * @return null 表示放行，否则是拒绝的原因
+     */
+    public String admit(Long voucherId) {
+        // 1.售罄，本节点手里还有租到的库存除外
+        if (seckillSoldOutCache.isSoldOut(voucherId) && !seckillStockManager.hasLeasedStock(voucherId)) {
+            soldOutCounter.increment();
+            return "库存不足";
+        }
+        // 2.不在秒杀时间内
+        int w = seckillWindowCache.check(voucherId);
+        if (w != SeckillStockManager.OK) {
+            outOfWindowCounter.increment();
+            return w == SeckillStockManager.NOT_STARTED ? "秒杀尚未开始！" : "秒杀已经结束！";
+        }
+        // 3.本地令牌桶
+        Bucket bucket = bucketOf(voucherId);
+        long now = System.nanoTime();
+        bucket.lastAccessNanos = now;
+        if (!bucket.tryAcquire(now) || !tryAcquireGlobal(voucherId, bucket)) {
+            throttledCounter.increment();
+            return "抢购人数过多，请稍后再试";
+        }
+        admittedCounter.increment();
+        return null;
+    }
+
+    private Bucket bucketOf(Long voucherId) {
+        Bucket bucket = buckets.get(voucherId);
+        if (bucket != null) {
+            return bucket;
+        }
+        // 第一次见到这张券，先同步采样一次剩余库存
+        bucket = new Bucket();
+        refresh(voucherId, bucket);
+        Bucket prev = buckets.putIfAbsent(voucherId, bucket);
+        return prev == null ? bucket : prev;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId, Bucket bucket) {
+        SeckillProperties.Admission props = seckillProperties.getAdmission();
+        if (!props.isGlobalEnabled()) {
+            return true;
+        }
+        try {
+            Long admitted = stringRedisTemplate.execute(BUCKET_SCRIPT, Collections.singletonList(SECKILL_BUCKET_KEY + voucherId),
+                    String.valueOf(bucket.rate), String.valueOf(Math.max(bucket.rate * props.getBurstSeconds(), 1)));
+            return admitted != null && admitted == 1;
+        } catch (Exception e) {
+            // 全局令牌桶不可用时只按本地令牌桶放行，后面还有lua脚本兜底
+            log.warn("全局令牌桶不可用, voucherId={}", voucherId, e);
+            return true;
+        }
+    }
+
+    // 按剩余库存（Redis 里的加上本节点租到的）调整放行速率
+    private void refresh(Long voucherId, Bucket bucket) {
+        SeckillProperties.Admission props = seckillProperties.getAdmission();
+        long remaining;
+        try {
+            remaining = seckillStockManager.remainingStock(voucherId) + seckillStockLease.available(voucherId);
+        } catch (Exception e) {
+            log.warn("采样剩余库存失败, voucherId={}", voucherId, e);
+            if (bucket.rate > 0) {
+                return;
+            }
+            remaining = 0;
+        }
+        double rate = Math.max(remaining * props.getStockFactor(), props.getMinRate());
+        double capacity = Math.max(rate * props.getBurstSeconds(), 1);
+        long interval = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / rate), 1);
+        bucket.intervalNanos = interval;
+        bucket.burstNanos = (long) (capacity * interval);
+        bucket.rate = rate;
+    }
+
+    private void refreshAll() {
+        long now = System.nanoTime();
+        buckets.forEach((voucherId, bucket) -> {
+            if (now - bucket.lastAccessNanos > IDLE_EVICT_NANOS) {
+                buckets.remove(voucherId, bucket);
+                return;
+            }
+            refresh(voucherId, bucket);
+        });
+    }
+}
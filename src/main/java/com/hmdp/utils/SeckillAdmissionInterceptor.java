@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// 秒杀请求的准入拦截器，排在token刷新拦截器之前，被拒绝的请求不用再去 Redis 查登录用户
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.从路径 /voucher-order/seckill/{id} 里取出券id，取不到就放行，交给后面处理
+        String uri = request.getRequestURI();
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(uri.substring(uri.lastIndexOf('/') + 1));
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        // 2.判断是否放行
+        String reason = seckillAdmission.admit(voucherId);
+        if (reason == null) {
+            return true;
+        }
+        // 3.拒绝，和业务失败一样返回 Result
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(reason)));
+        return false;
+    }
+}
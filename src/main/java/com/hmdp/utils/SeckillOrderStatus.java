@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单在 Redis 里的状态记录 seckill:order:status:{orderId}，hash 结构，带有效期
+ * <p>
+ * 下单脚本写入 QUEUED（排队中），消费者落库后改成 CREATED（已创建）或 FAILED（失败，带原因），
+ * 用户查询订单状态只读 Redis，不再轮询订单表。<br>
+ * 状态改变后通过 Redis 发布订阅通知各节点（每批订单一条消息），唤醒在这个订单上长轮询的请求
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus implements MessageListener {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private ThreadPoolTaskExecutor redisListenerExecutor;
+
+    // orderId -> 在这个订单上长轮询的请求，状态变化时回调
+    private final ConcurrentHashMap<Long, Set<Runnable>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    public Map<Object, Object> get(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+
+    // 批量标记已创建，一次管道写入
+    public void markCreated(Collection<VoucherOrder> orders) {
+        update(orders, CREATED, null);
+    }
+
+    public void markFailed(VoucherOrder order, String reason) {
+        update(Collections.singletonList(order), FAILED, reason);
+    }
+
+    public void addWaiter(Long orderId, Runnable waiter) {
+        waiters.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(waiter);
+    }
+
+    public void removeWaiter(Long orderId, Runnable waiter) {
+        waiters.computeIfPresent(orderId, (id, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    // 一条消息里是一批订单id，逗号分隔；本节点没人等的直接跳过，有人等的交给线程池去查状态、唤醒请求
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String id : StrUtil.split(body, ',', true, true)) {
+            try {
+                Set<Runnable> set = waiters.remove(Long.valueOf(id));
+                if (set != null) {
+                    redisListenerExecutor.execute(() -> set.forEach(Runnable::run));
+                }
+            } catch (Exception e) {
+                log.warn("处理订单状态通知失败: {}", id, e);
+            }
+        }
+    }
+
+    private void update(Collection<VoucherOrder> orders, String status, String reason) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        long ttl = seckillProperties.getOrder().getStatusTtl().getSeconds();
+        // 管道里执行 HSET、EXPIRE，整批订单id拼成一条消息 PUBLISH，只有一次网络往返
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (VoucherOrder order : orders) {
+                    String key = SECKILL_ORDER_STATUS_KEY + order.getId();
+                    Map<String, String> fields = new HashMap<>(8);
+                    fields.put("status", status);
+                    fields.put("userId", String.valueOf(order.getUserId()));
+                    fields.put("voucherId", String.valueOf(order.getVoucherId()));
+                    if (reason != null) {
+                        fields.put("reason", reason);
+                    }
+                    ops.opsForHash().putAll(key, fields);
+                    ops.expire(key, ttl, TimeUnit.SECONDS);
+                }
+                ops.convertAndSend(SECKILL_ORDER_STATUS_CHANNEL,
+                        orders.stream().map(o -> String.valueOf(o.getId())).collect(Collectors.joining(",")));
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本节点的秒杀券售罄标记
+ * <p>
+ * lua脚本返回库存不足后标记该券售罄，之后的请求在本地直接拒绝，不再分配订单id、也不再执行lua脚本。
+ * 标记和清除都通过 Redis 发布订阅同步给其他节点；补充库存时清除标记，连同库存分片的"已无库存"标记一起清除。
+ * 标记带一个较短的有效期，即便清除消息丢了或者和补库存并发错过了，过期后也会有一个请求重新去 Redis 判断
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    // 消息格式：+voucherId 表示售罄，-voucherId 表示清除售罄
+    private static final char SOLD_OUT = '+';
+    private static final char CLEAR = '-';
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    // voucherId -> 标记过期时间（毫秒时间戳）
+    private final ConcurrentHashMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            // 标记过期，放一个请求去 Redis 重新判断
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    // 标记售罄，并通知其他节点
+    public void markSoldOut(Long voucherId) {
+        putLocal(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId.toString());
+    }
+
+    // 清除售罄标记（补充库存后调用），并通知其他节点
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        seckillStockManager.clearEmptyShards(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, CLEAR + voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == SOLD_OUT) {
+                putLocal(voucherId);
+            } else if (body.charAt(0) == CLEAR) {
+                soldOut.remove(voucherId);
+                seckillStockManager.clearEmptyShards(voucherId);
+            }
+        } catch (Exception e) {
+            log.warn("无法解析售罄消息: {}", body, e);
+        }
+    }
+
+    private void putLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + seckillProperties.getSoldOutTtl().toMillis());
+    }
+}
@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本节点的秒杀库存租约
+ * <p>
+ * 一次用 lua 脚本从库存key里 DECRBY 一批（不超过剩余库存）放到本地计数器，请求线程用 CAS 在本地扣减，不再逐个去 Redis 判断库存。
+ * 本地额度都是先从 Redis 扣下来的，所以不会超卖；节点宕机时没用完的额度会丢，只会少卖。<br>
+ * 剩余低于阈值时后台续租，用完了则由一个请求线程同步续租，其他线程等它的结果；
+ * 闲置超过一段时间（秒杀结束、流量转到别的节点）或者停机时，把没用完的额度还回 Redis
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    // voucherId -> 本节点的租约
+    private final ConcurrentHashMap<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    // 直接从本地额度扣到库存的次数
+    private Counter hitCounter;
+    // 本地额度用完、请求线程同步续租到库存的次数
+    private Counter syncRefillCounter;
+    // 后台提前续租到库存的次数
+    private Counter asyncRefillCounter;
+    // 还回 Redis 的库存数
+    private Counter returnedCounter;
+
+    private static class Lease {
+        // 库存分片数，租和还都在这些分片上进行
+        private final int shards;
+        // 本地剩余额度
+        private final AtomicInteger available = new AtomicInteger();
+        // 是否已经有后台续租任务
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        // Redis 上已经租不到库存了，不再后台续租，等有请求用完本地额度时再同步确认一次
+        private volatile boolean drained;
+        // 最后一次扣减的时间
+        private volatile long lastAcquireTime = System.currentTimeMillis();
+
+        Lease(int shards) {
+            this.shards = shards;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        hitCounter = meterRegistry.counter("seckill.stock.lease.hit");
+        syncRefillCounter = meterRegistry.counter("seckill.stock.lease.refill", "mode", "sync");
+        asyncRefillCounter = meterRegistry.counter("seckill.stock.lease.refill", "mode", "async");
+        returnedCounter = meterRegistry.counter("seckill.stock.lease.returned");
+        Gauge.builder("seckill.stock.lease.available", leases,
+                        m -> m.values().stream().mapToInt(l -> l.available.get()).sum())
+                .description("本节点租到还没用掉的库存").register(meterRegistry);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-stock-lease-", true));
+        long interval = Math.max(seckillProperties.getLease().getIdleReturn().toMillis() / 2, 1000);
+        executor.scheduleWithFixedDelay(this::returnIdle, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdownNow();
+        // 停机前把没用完的额度都还回去
+        leases.keySet().forEach(this::returnLease);
+    }
+
+    /**
+     * 从本地额度扣一个库存，本地不够就续租
+     *
+     * @return false 表示 Redis 上也没有库存了
+     */
+    public boolean acquire(Long voucherId, int shards) {
+        Lease lease = leases.computeIfAbsent(voucherId, id -> new Lease(shards));
+        lease.lastAcquireTime = System.currentTimeMillis();
+        // 1.本地额度够就直接扣
+        if (tryDecrement(lease)) {
+            hitCounter.increment();
+            refillIfLow(voucherId, lease);
+            return true;
+        }
+        // 2.本地没有了，同步续租。同一张券只让一个线程去 Redis，其他线程等它租完再扣
+        synchronized (lease) {
+            if (tryDecrement(lease)) {
+                hitCounter.increment();
+                return true;
+            }
+            int n = leaseFromRedis(voucherId, lease);
+            if (n <= 0) {
+                return false;
+            }
+            syncRefillCounter.increment();
+            // 自己先拿走一个，剩下的放进本地额度
+            lease.available.addAndGet(n - 1);
+            return true;
+        }
+    }
+
+    /**
+     * 归还一个已经扣掉、但没有下单成功（比如重复下单）的库存
+     */
+    public void release(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        if (lease != null) {
+            lease.available.incrementAndGet();
+        }
+    }
+
+    public boolean hasStock(Long voucherId) {
+        return available(voucherId) > 0;
+    }
+
+    /**
+     * 本节点租到还没用掉的库存
+     */
+    public int available(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        return lease == null ? 0 : Math.max(lease.available.get(), 0);
+    }
+
+    /**
+     * 把本节点没用完的额度还回 Redis
+     */
+    public void returnLease(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        if (lease == null) {
+            return;
+        }
+        synchronized (lease) {
+            int n = lease.available.getAndSet(0);
+            if (n <= 0) {
+                return;
+            }
+            try {
+                // 还到随机一个分片上，分片之间可以互相借库存
+                int shard = lease.shards == 1 ? -1 : ThreadLocalRandom.current().nextInt(lease.shards);
+                stringRedisTemplate.opsForValue().increment(SeckillStockManager.stockKey(voucherId, shard), n);
+                lease.drained = false;
+                returnedCounter.increment(n);
+                log.info("归还秒杀库存租约 voucherId={} count={}", voucherId, n);
+            } catch (Exception e) {
+                // 还失败了放回本地，下次再还
+                lease.available.addAndGet(n);
+                log.warn("归还秒杀库存租约失败 voucherId={} count={}", voucherId, n, e);
+            }
+        }
+    }
+
+    private static boolean tryDecrement(Lease lease) {
+        for (;;) {
+            int a = lease.available.get();
+            if (a <= 0) {
+                return false;
+            }
+            if (lease.available.compareAndSet(a, a - 1)) {
+                return true;
+            }
+        }
+    }
+
+    // 剩余额度低于阈值时后台续租一批，同一张券同时只有一个续租任务
+    private void refillIfLow(Long voucherId, Lease lease) {
+        if (lease.drained || lease.available.get() >= seckillProperties.getLease().getRefillThreshold()) {
+            return;
+        }
+        if (!lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    synchronized (lease) {
+                        if (lease.available.get() < seckillProperties.getLease().getRefillThreshold()) {
+                            int n = leaseFromRedis(voucherId, lease);
+                            if (n > 0) {
+                                asyncRefillCounter.increment();
+                                lease.available.addAndGet(n);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("续租秒杀库存失败 voucherId={}", voucherId, e);
+                } finally {
+                    lease.refilling.set(false);
+                }
+            });
+        } catch (Exception e) {
+            // 停机时线程池已关闭
+            lease.refilling.set(false);
+        }
+    }
+
+    // 从随机一个分片开始依次尝试，返回租到的数量
+    private int leaseFromRedis(Long voucherId, Lease lease) {
+        String chunk = String.valueOf(seckillProperties.getLease().getChunk());
+        if (lease.shards == 1) {
+            return markDrained(lease, lease(SeckillStockManager.stockKey(voucherId, -1), chunk));
+        }
+        int start = ThreadLocalRandom.current().nextInt(lease.shards);
+        for (int j = 0; j < lease.shards; j++) {
+            int n = lease(SeckillStockManager.stockKey(voucherId, (start + j) % lease.shards), chunk);
+            if (n > 0) {
+                return markDrained(lease, n);
+            }
+        }
+        return markDrained(lease, 0);
+    }
+
+    private int lease(String stockKey, String chunk) {
+        Long n = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(stockKey), chunk);
+        return n == null ? 0 : n.intValue();
+    }
+
+    private static int markDrained(Lease lease, int n) {
+        lease.drained = n <= 0;
+        return n;
+    }
+
+    private void returnIdle() {
+        long deadline = System.currentTimeMillis() - seckillProperties.getLease().getIdleReturn().toMillis();
+        leases.forEach((voucherId, lease) -> {
+            if (lease.lastAcquireTime < deadline && lease.available.get() > 0) {
+                returnLease(voucherId);
+            }
+        });
+    }
+}
@@ -0,0 +1,301 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存在 Redis 中的存放和扣减
+ * <p>
+ * 库存可以拆成 K 个分片：seckill:stock:{voucherId:i}，已下单用户集合也按同样的方式分片：seckill:order:{voucherId:i}，
+ * 花括号是集群的 hash tag，同一分片的库存和用户集合落在同一个 slot，不同分片分散到不同 slot，热门券的扣减不再集中在一个key上。<br>
+ * 用户按 userId 取模固定到一个"本分片"，一人一单的判断只看本分片的用户集合，所以分片后仍然准确；
+ * 本分片库存扣完了，再依次从其他分片借一个库存，借到后带着"库存已扣"的标记重新执行下单脚本。<br>
+ * 分片数 K 在建券时写入 seckill:shards:{voucherId}，K=1（或者老的券没有这个key）时沿用不分片的 seckill:stock:{voucherId}<br>
+ * 本节点发现某个分片没库存了就记下来，有效期和售罄标记相同，期间不再去 Redis 试这个分片，补充库存时清除<br>
+ * 开启库存租约后，库存从本节点租到的额度里扣（见 {@link SeckillStockLease}），Redis 只做一人一单判断和下单<br>
+ * 秒杀时间窗口在每个分片旁边存一份 seckill:window:{voucherId:i}，下单脚本用 Redis 的时钟判断是否开始、结束<br>
+ * 注意：下单脚本在同一次执行里还要写订单消息队列 stream.orders:{分区} 和订单状态 seckill:order:status:{orderId}，
+ * 这两个key和库存分片不在同一个 slot，所以秒杀只支持单个 Redis 节点（主从、哨兵），分片只是把热点分散到多个key，不能上 Redis Cluster
+ * </p>
+ */
+@Component
+public class SeckillStockManager {
+
+    // 下单脚本的返回值
+    public static final int OK = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    public static final int NOT_STARTED = 3;
+    public static final int ENDED = 4;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    // 静态代码块加载lua脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> BORROW_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        BORROW_SCRIPT = new DefaultRedisScript<>();
+        BORROW_SCRIPT.setLocation(new ClassPathResource("seckill_borrow.lua"));
+        BORROW_SCRIPT.setResultType(Long.class);
+    }
+
+    // voucherId -> 分片数，建券后不会再变，查到一次就缓存下来
+    private final ConcurrentHashMap<Long, Integer> shardsCache = new ConcurrentHashMap<>();
+
+    // voucherId -> 每个分片"已无库存"标记的过期时间（毫秒时间戳），0 表示没有标记
+    private final ConcurrentHashMap<Long, AtomicLongArray> emptyShards = new ConcurrentHashMap<>();
+
+    /**
+     * 新建秒杀券时初始化库存：按配置的分片数拆开写入，并记录分片数
+     */
+    public void initStock(Long voucherId, int stock) {
+        int shards = Math.max(seckillProperties.getStockShards(), 1);
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardsCache.put(voucherId, shards);
+        if (shards == 1) {
+            // 普通的String结构，不用设置超时时间
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, -1), String.valueOf(stock));
+            return;
+        }
+        for (int i = 0; i < shards; i++) {
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(shareOf(stock, shards, i)));
+        }
+    }
+
+    /**
+     * 预热库存：Redis 里还没有这张券的库存时才写入，多个节点同时预热只有一个能写成功。
+     * 只能在秒杀开始前调用，开始后数据库库存是异步扣减的，不能再用它覆盖 Redis
+     *
+     * @return 是否写入了库存
+     */
+    public boolean preloadStock(Long voucherId, int stock) {
+        int shards = Math.max(seckillProperties.getStockShards(), 1);
+        Boolean absent = stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        if (!Boolean.TRUE.equals(absent)) {
+            return false;
+        }
+        initStock(voucherId, stock);
+        return true;
+    }
+
+    /**
+     * 保存秒杀时间窗口，每个分片旁边存一份，下单脚本里判断
+     */
+    public void saveWindow(Long voucherId, long beginMillis, long endMillis) {
+        int shards = shardsOf(voucherId);
+        Map<String, String> window = new HashMap<>(4);
+        window.put("begin", String.valueOf(beginMillis));
+        window.put("end", String.valueOf(endMillis));
+        for (int i = shards == 1 ? -1 : 0; i < (shards == 1 ? 0 : shards); i++) {
+            stringRedisTemplate.opsForHash().putAll(windowKey(voucherId, i), window);
+        }
+    }
+
+    /**
+     * 补充库存：按分片平均分摊，余数从随机一个分片开始分，避免总是落在前几个分片
+     */
+    public void addStock(Long voucherId, int count) {
+        int shards = shardsOf(voucherId);
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, -1), count);
+            return;
+        }
+        int offset = ThreadLocalRandom.current().nextInt(shards);
+        for (int i = 0; i < shards; i++) {
+            int share = shareOf(count, shards, (i - offset + shards) % shards);
+            if (share > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), share);
+            }
+        }
+    }
+
+    /**
+     * 判断下单资格并扣减库存，有资格则写入订单消息队列
+     *
+     * @return OK 下单成功；SOLD_OUT 所有分片库存都不足；DUPLICATE 重复下单；NOT_STARTED / ENDED 不在秒杀时间内
+     */
+    public int seckill(Long voucherId, Long userId, long orderId) {
+        int shards = shardsOf(voucherId);
+        // 0.开启了库存租约，库存在本地扣
+        if (seckillProperties.getLease().isEnabled()) {
+            return seckillWithLease(voucherId, userId, orderId, shards);
+        }
+        // 1.不分片就是原来的一次lua脚本
+        if (shards == 1) {
+            return execute(voucherId, userId, orderId, -1, false);
+        }
+        AtomicLongArray empty = emptyShards.computeIfAbsent(voucherId, id -> new AtomicLongArray(shards));
+        long now = System.currentTimeMillis();
+        // 2.先在用户的本分片上扣库存、下单
+        int home = (int) Math.floorMod(userId, (long) shards);
+        if (empty.get(home) < now) {
+            int r = execute(voucherId, userId, orderId, home, false);
+            if (r != SOLD_OUT) {
+                return r;
+            }
+            markEmpty(empty, home, now);
+        }
+        // 3.本分片库存不足，从随机位置开始依次向其他分片借一个库存，跳过已知没库存的分片
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        for (int j = 0; j < shards; j++) {
+            int shard = (start + j) % shards;
+            if (shard == home || empty.get(shard) >= now) {
+                continue;
+            }
+            Long borrowed = stringRedisTemplate.execute(BORROW_SCRIPT, Collections.singletonList(stockKey(voucherId, shard)));
+            if (borrowed == null || borrowed == 0) {
+                markEmpty(empty, shard, now);
+                continue;
+            }
+            // 3.1.借到了，库存已扣，回到本分片只做时间窗口、一人一单判断和下单
+            int r = DUPLICATE;
+            try {
+                r = execute(voucherId, userId, orderId, home, true);
+            } finally {
+                if (r != OK) {
+                    // 3.2.重复下单、不在时间窗口内或者脚本执行失败，把借来的库存还回去，这个分片又有库存了
+                    stringRedisTemplate.opsForValue().increment(stockKey(voucherId, shard));
+                    empty.set(shard, 0);
+                }
+            }
+            return r;
+        }
+        // 4.所有分片都没有库存了
+        return SOLD_OUT;
+    }
+
+    private int seckillWithLease(Long voucherId, Long userId, long orderId, int shards) {
+        // 1.从本地额度扣一个库存
+        if (!seckillStockLease.acquire(voucherId, shards)) {
+            return SOLD_OUT;
+        }
+        // 2.库存已扣，到用户的本分片只做一人一单判断和下单
+        int home = shards == 1 ? -1 : (int) Math.floorMod(userId, (long) shards);
+        int r = DUPLICATE;
+        try {
+            r = execute(voucherId, userId, orderId, home, true);
+        } finally {
+            if (r != OK) {
+                // 3.重复下单、不在时间窗口内或者脚本执行失败，库存还回本地额度
+                seckillStockLease.release(voucherId);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Redis 里所有分片的剩余库存之和，不含各节点租走的库存
+     */
+    public long remainingStock(Long voucherId) {
+        int shards = shardsOf(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = shards == 1 ? -1 : 0; i < (shards == 1 ? 0 : shards); i++) {
+            keys.add(stockKey(voucherId, i));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        long remaining = 0;
+        if (values != null) {
+            for (String value : values) {
+                if (StrUtil.isNotBlank(value)) {
+                    remaining += Math.max(Long.parseLong(value), 0);
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * 本节点是否还有租到的库存，有的话即便其他节点报了售罄，本节点也可以继续卖
+     */
+    public boolean hasLeasedStock(Long voucherId) {
+        return seckillProperties.getLease().isEnabled() && seckillStockLease.hasStock(voucherId);
+    }
+
+    /**
+     * 清除本节点记录的"分片已无库存"标记，补充库存后调用
+     */
+    public void clearEmptyShards(Long voucherId) {
+        emptyShards.remove(voucherId);
+    }
+
+    private void markEmpty(AtomicLongArray empty, int shard, long now) {
+        empty.set(shard, now + seckillProperties.getSoldOutTtl().toMillis());
+    }
+
+    private int execute(Long voucherId, Long userId, long orderId, int shard, boolean stockTaken) {
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shard), orderKey(voucherId, shard), windowKey(voucherId, shard),
+                        streamKey(voucherId), SECKILL_ORDER_STATUS_KEY + orderId),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId),  // 这里传其他参数（即非key的参数），以字符串形式
+                stockTaken ? "1" : "0",
+                String.valueOf(seckillProperties.getOrder().getStatusTtl().getSeconds())  // 订单状态的有效期
+        );
+        return result.intValue();
+    }
+
+    public int shardsOf(Long voucherId) {
+        Integer shards = shardsCache.get(voucherId);
+        if (shards != null) {
+            return shards;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (StrUtil.isBlank(value)) {
+            // 老的券没有记录分片数，按不分片处理；不缓存，免得券还没建好时缓存了错误的值
+            return 1;
+        }
+        shards = Integer.valueOf(value);
+        shardsCache.put(voucherId, shards);
+        return shards;
+    }
+
+    // shard < 0 表示不分片
+    public static String stockKey(Long voucherId, int shard) {
+        return shard < 0 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return shard < 0 ? SECKILL_ORDER_KEY + voucherId : SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String windowKey(Long voucherId, int shard) {
+        return shard < 0 ? SECKILL_WINDOW_KEY + voucherId : SECKILL_WINDOW_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    // 订单消息队列按 voucherId 取模选分区，同一张券的订单落在同一个分区
+    private String streamKey(Long voucherId) {
+        return SECKILL_ORDER_STREAM_KEY + Math.floorMod(voucherId, (long) seckillProperties.getOrder().getPartitions());
+    }
+
+    // total 平均分给 shards 个分片，第 i 个分片分到的数量
+    private static int shareOf(int total, int shards, int i) {
+        return total / shards + (i < total % shards ? 1 : 0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 本节点缓存的秒杀时间窗口
+ * <p>
+ * 请求进来先用本地时钟挡掉明显没开始、已经结束的请求，不再分配订单id、也不执行lua脚本；
+ * 真正的判断在下单脚本里用 Redis 的时钟做，两者差一点不影响正确性。<br>
+ * 窗口由建券和预热写入，本地没有时去 Redis 读一次，Redis 也没有（老的券、不存在的券）就不在本地判断，
+ * 并在本地记一个"没有窗口"的标记，有效期内不再去 Redis 读
+ * </p>
+ */
+@Component
+public class SeckillWindowCache {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    // voucherId -> 时间窗口
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    private static class Window {
+        private final long begin;
+        private final long end;
+        // 本地缓存的过期时间，真实的窗口不过期
+        private final long expireAt;
+
+        Window(long begin, long end, long expireAt) {
+            this.begin = begin;
+            this.end = end;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * @return SeckillStockManager.OK 在时间窗口内或者没有窗口；NOT_STARTED 尚未开始；ENDED 已经结束
+     */
+    public int check(Long voucherId) {
+        Window window = windows.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (window == null || now > window.expireAt) {
+            window = load(voucherId);
+        }
+        if (now < window.begin) {
+            return SeckillStockManager.NOT_STARTED;
+        }
+        if (now > window.end) {
+            return SeckillStockManager.ENDED;
+        }
+        return SeckillStockManager.OK;
+    }
+
+    public void put(Long voucherId, long beginMillis, long endMillis) {
+        windows.put(voucherId, new Window(beginMillis, endMillis, Long.MAX_VALUE));
+    }
+
+    /**
+     * 本地缓存里已经结束超过 graceMillis 的券
+     */
+    public Set<Long> endedBefore(long graceMillis) {
+        long deadline = System.currentTimeMillis() - graceMillis;
+        return windows.entrySet().stream()
+                .filter(e -> e.getValue().end < deadline)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    public void remove(Long voucherId) {
+        windows.remove(voucherId);
+    }
+
+    /**
+     * 清掉已经过期的"没有窗口"标记，由预热任务定时调用，不存在的券id不会一直占着内存
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        windows.values().removeIf(w -> now > w.expireAt);
+    }
+
+    // 从 Redis 读窗口，分片的券每个分片存的都一样，读第一个就行。
+    // 没有窗口时缓存一个不限时间、短期有效的标记，开始、结束都不拦截
+    private Window load(Long voucherId) {
+        int shards = seckillStockManager.shardsOf(voucherId);
+        String key = SeckillStockManager.windowKey(voucherId, shards == 1 ? -1 : 0);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, Arrays.asList("begin", "end"));
+        Window window;
+        if (values.get(0) == null || values.get(1) == null) {
+            window = new Window(Long.MIN_VALUE, Long.MAX_VALUE,
+                    System.currentTimeMillis() + seckillProperties.getWindowMissTtl().toMillis());
+        } else {
+            window = new Window(Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString()), Long.MAX_VALUE);
+        }
+        windows.put(voucherId, window);
+        return window;
+    }
+}
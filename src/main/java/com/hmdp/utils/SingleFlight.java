@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 本节点内的请求合并：同一个key同时只执行一次加载，其他线程等着拿同一个结果
+ * <p>
+ * 第一个到的线程自己执行加载，不另开线程；后到的线程等待它的结果，最多等 timeout，超时抛异常。
+ * 加载抛出的异常会原样抛给所有等待的线程。加载完成后立即移除，下一次调用重新加载，不缓存结果
+ * </p>
+ */
+public class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, Duration timeout) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, call);
+        if (existing != null) {
+            // 1.已经有线程在加载，等它的结果
+            return (T) await(key, existing, timeout);
+        }
+        // 2.自己加载，结果交给等待的线程
+        try {
+            T value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    // 这个key是否正在加载
+    public boolean isInFlight(String key) {
+        return calls.containsKey(key);
+    }
+
+    private static Object await(String key, CompletableFuture<Object> call, Duration timeout) {
+        try {
+            return call.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待 " + key + " 加载超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待 " + key + " 加载时被中断");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ZipUtil;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.config.CacheProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * 二进制编码：Jackson Smile，比 JSON 小、解析快，逻辑过期缓存只解析一次
+ * <p>
+ * 格式：类型(1字节) + 标志位(1字节) + [逻辑过期时间毫秒数(8字节) + 重建耗时(8字节，-1表示没有)] + Smile 数据，
+ * 过期时间放在固定位置的 long 里，不再是字符串。Smile 数据超过 compress-threshold 时用 zlib 压缩，标志位记一下。
+ * 第一个字节不是这里的类型时按 JSON 解码，从 json 切换过来时 Redis 里的旧数据照样能读
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(prefix = "hmdp.cache", name = "codec", havingValue = "smile")
+public class SmileCacheCodec implements CacheCodec {
+    private static final byte TYPE_VALUE = 1;
+    private static final byte TYPE_LOGICAL = 2;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final int VALUE_HEADER = 2;
+    private static final int LOGICAL_HEADER = VALUE_HEADER + Long.BYTES * 2;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Resource
+    private CacheProperties cacheProperties;
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(TYPE_VALUE, value, null);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != TYPE_VALUE) {
+            return jsonCodec.decode(bytes, type);
+        }
+        return read(bytes, VALUE_HEADER, type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return write(TYPE_LOGICAL, redisData.getData(), redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeLogical(byte[] bytes, Class<R> type) {
+        if (bytes[0] != TYPE_LOGICAL) {
+            return jsonCodec.decodeLogical(bytes, type);
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes, VALUE_HEADER, Long.BYTES * 2);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(header.getLong()), ZoneId.systemDefault()));
+        long rebuildCost = header.getLong();
+        redisData.setRebuildCost(rebuildCost < 0 ? null : rebuildCost);
+        redisData.setData(read(bytes, LOGICAL_HEADER, type));
+        return redisData;
+    }
+
+    // 类型 + 标志位 + [过期时间 + 重建耗时] + Smile 数据
+    private byte[] write(byte type, Object value, RedisData redisData) {
+        byte[] smile;
+        try {
+            smile = MAPPER.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte flags = 0;
+        long threshold = cacheProperties.getCompressThreshold().toBytes();
+        if (threshold > 0 && smile.length > threshold) {
+            smile = ZipUtil.zlib(smile, Deflater.BEST_SPEED);
+            flags = FLAG_COMPRESSED;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((redisData == null ? VALUE_HEADER : LOGICAL_HEADER) + smile.length);
+        buffer.put(type).put(flags);
+        if (redisData != null) {
+            buffer.putLong(redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            buffer.putLong(redisData.getRebuildCost() == null ? -1 : redisData.getRebuildCost());
+        }
+        return buffer.put(smile).array();
+    }
+
+    // 从 offset 开始是 Smile 数据，按标志位决定要不要先解压
+    private static <R> R read(byte[] bytes, int offset, Class<R> type) {
+        try {
+            if ((bytes[1] & FLAG_COMPRESSED) != 0) {
+                return MAPPER.readValue(ZipUtil.unZlib(Arrays.copyOfRange(bytes, offset, bytes.length)), type);
+            }
+            return MAPPER.readValue(bytes, offset, bytes.length - offset, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
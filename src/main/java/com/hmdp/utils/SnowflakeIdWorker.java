@@ -0,0 +1,284 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.IdWorkerProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 雪花算法的id生成器，生成id不访问 Redis
+ * <p>
+ * 和 RedisIdWorker 一样，高32位是从 2022-01-01 开始的秒数（按本地时区的标准时间算），新老id放在一起仍然按时间递增；
+ * 低32位是 1(1位，和 Redis 计数器的序列号区分开) + 秒内毫秒数(10位) + 机器号(8位) + 毫秒内序列号(13位)，
+ * 每个节点每毫秒最多生成 8192 个id，序列号用完就等下一毫秒。<br>
+ * 机器号在启动时去 Redis 里租：SET id:worker:{n} 节点标识 NX PX ttl，之后定时续期；租约过期前续不上就停止生成id，
+ * 避免机器号被其他节点拿走后生成重复的id。<br>
+ * 时钟回拨不超过 maxBackward 就等时钟追上来，超过则直接抛异常。时钟和回拨判断都按 UTC 毫秒数，只在组装id时加上时区的标准偏移，
+ * 标准偏移不随夏令时变化，夏令时结束时本地时间倒退一小时不会被当成时钟回拨（夏令时期间的id比 RedisIdWorker 的慢一小时）。业务前缀只是为了和 RedisIdWorker 的接口一致，不同业务共用一个序列
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.id", name = "mode", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+    /**
+     * 开始时间戳，2022.01.01 00:00:00，和 RedisIdWorker 保持一致
+     */
+    private static final long BEGIN_MILLIS = 1640995200L * 1000;
+
+    private static final int SEQUENCE_BITS = 13;
+    private static final int WORKER_BITS = 8;
+    private static final int MILLIS_BITS = 10;
+    public static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    public static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SNOWFLAKE_FLAG = 1L << (SEQUENCE_BITS + WORKER_BITS + MILLIS_BITS);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        // 和释放锁一样：是自己的才删
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 节点标识，写在租约的值里
+    private final String token = NetUtil.getLocalHostName() + "-" + UUID.randomUUID().toString(true);
+
+    private volatile long workerId = -1;
+
+    // 租约到期时间，按本机时间算，续期成功时往后推
+    private volatile long leaseExpiresAt;
+
+    // 上一次生成id的毫秒数 << SEQUENCE_BITS | 这一毫秒里用到的序列号，CAS 更新，不加锁
+    private final AtomicLong state = new AtomicLong();
+
+    // 本地时区标准时间相对 UTC 的偏移，启动时算一次
+    private long offsetMillis;
+
+    private ScheduledExecutorService renewExecutor;
+
+    private Counter exhaustedCounter;
+
+    private Counter backwardWaitedCounter;
+
+    private Counter backwardFailedCounter;
+
+    @PostConstruct
+    private void init() {
+        exhaustedCounter = meterRegistry.counter("id.snowflake.sequence.exhausted");
+        backwardWaitedCounter = meterRegistry.counter("id.snowflake.clock.backward", "result", "waited");
+        backwardFailedCounter = meterRegistry.counter("id.snowflake.clock.backward", "result", "failed");
+        offsetMillis = standardOffsetMillis(ZoneId.systemDefault(), System.currentTimeMillis());
+        // 1.启动时租一个机器号，租不到就启动失败
+        if (!lease()) {
+            throw new IllegalStateException("没有空闲的机器号，最多 " + MAX_WORKERS + " 个节点同时使用 snowflake 方式生成id");
+        }
+        // 2.定时续期
+        long interval = idWorkerProperties.getSnowflake().getRenewInterval().toMillis();
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("id-worker-lease-", true));
+        renewExecutor.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        renewExecutor.shutdownNow();
+        // 主动释放机器号，不用等过期
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), token);
+        } catch (Exception e) {
+            log.warn("释放机器号 {} 失败", workerId, e);
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        checkLease();
+        while (true) {
+            // 先读状态再读时钟，否则在两次读取之间被其他线程推进了状态，会被误判成时钟回拨
+            long last = state.get();
+            long now = currentMillis();
+            long lastMillis = last >>> SEQUENCE_BITS;
+            long sequence;
+            if (now < lastMillis) {
+                // 1.时钟回拨，等追上来再重试
+                waitForClock(lastMillis, now);
+                continue;
+            }
+            if (now == lastMillis) {
+                // 2.同一毫秒内序列号加一，用完了就等下一毫秒
+                sequence = (last & MAX_SEQUENCE) + 1;
+                if (sequence > MAX_SEQUENCE) {
+                    waitNextMillis(lastMillis);
+                    continue;
+                }
+            } else {
+                // 3.新的一毫秒，序列号从0开始
+                sequence = 0;
+            }
+            if (state.compareAndSet(last, now << SEQUENCE_BITS | sequence)) {
+                return compose(now, sequence);
+            }
+        }
+    }
+
+    // 一次 CAS 占下当前毫秒里剩下的序列号，不够再去下一毫秒取
+    @Override
+    public long[] nextIds(String keyPrefix, int n) {
+        checkLease();
+        long[] ids = new long[n];
+        int filled = 0;
+        while (filled < n) {
+            long last = state.get();
+            long now = currentMillis();
+            long lastMillis = last >>> SEQUENCE_BITS;
+            long first;
+            if (now < lastMillis) {
+                waitForClock(lastMillis, now);
+                continue;
+            }
+            if (now == lastMillis) {
+                first = (last & MAX_SEQUENCE) + 1;
+                if (first > MAX_SEQUENCE) {
+                    waitNextMillis(lastMillis);
+                    continue;
+                }
+            } else {
+                first = 0;
+            }
+            long take = Math.min(n - filled, MAX_SEQUENCE - first + 1);
+            if (state.compareAndSet(last, now << SEQUENCE_BITS | (first + take - 1))) {
+                for (long s = first; s < first + take; s++) {
+                    ids[filled++] = compose(now, s);
+                }
+            }
+        }
+        return ids;
+    }
+
+    // 高32位秒数 | 标志位 | 秒内毫秒数 | 机器号 | 序列号，millis 是 UTC 毫秒数，这里才换成本地标准时间
+    private long compose(long millis, long sequence) {
+        long local = millis + offsetMillis - BEGIN_MILLIS;
+        return (local / 1000) << 32 | SNOWFLAKE_FLAG
+                | (local % 1000) << (SEQUENCE_BITS + WORKER_BITS)
+                | workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    // UTC 毫秒数，序列号和时钟回拨都按它判断
+    private long currentMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 时区的标准偏移（不含夏令时），夏令时切换前后不变。没有夏令时的时区（比如 Asia/Shanghai）就是平时的偏移
+     */
+    public static long standardOffsetMillis(ZoneId zone, long epochMillis) {
+        return zone.getRules().getStandardOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+    }
+
+    private void waitForClock(long lastMillis, long now) {
+        long backward = lastMillis - now;
+        if (backward > idWorkerProperties.getSnowflake().getMaxBackward().toMillis()) {
+            backwardFailedCounter.increment();
+            throw new IllegalStateException("时钟回拨 " + backward + "ms，拒绝生成id");
+        }
+        backwardWaitedCounter.increment();
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backward));
+    }
+
+    // 这一毫秒的序列号用完了，记下来后自旋到下一毫秒
+    private void waitNextMillis(long lastMillis) {
+        exhaustedCounter.increment();
+        while (currentMillis() <= lastMillis) {
+            Thread.yield();
+        }
+    }
+
+    private void checkLease() {
+        if (System.currentTimeMillis() >= leaseExpiresAt) {
+            throw new IllegalStateException("机器号 " + workerId + " 的租约已过期，暂停生成id");
+        }
+    }
+
+    // 从随机位置开始找一个空闲的机器号，SET id:worker:{n} token NX PX ttl
+    private boolean lease() {
+        long ttl = idWorkerProperties.getSnowflake().getLeaseTtl().toMillis();
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int id = (start + i) % MAX_WORKERS;
+            long begin = System.currentTimeMillis();
+            Boolean ok = stringRedisTemplate.opsForValue().setIfAbsent(ID_WORKER_KEY + id, token, ttl, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(ok)) {
+                workerId = id;
+                // 从发出请求时算起，保守一点
+                leaseExpiresAt = begin + ttl;
+                log.info("租到机器号 {}", id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void renew() {
+        long ttl = idWorkerProperties.getSnowflake().getLeaseTtl().toMillis();
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.租约还是自己的就续期；已经过期了就重新占住同一个机器号
+            String key = ID_WORKER_KEY + workerId;
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key), token, String.valueOf(ttl));
+            if ((renewed != null && renewed == 1)
+                    || Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(key, token, ttl, TimeUnit.MILLISECONDS))) {
+                leaseExpiresAt = begin + ttl;
+                return;
+            }
+            // 2.机器号已经被其他节点拿走了，换一个
+            log.error("机器号 {} 的租约已被其他节点占用，重新租一个", workerId);
+            leaseExpiresAt = 0;
+            if (!lease()) {
+                log.error("没有空闲的机器号，暂停生成id");
+            }
+        } catch (Exception e) {
+            log.warn("机器号 {} 续期失败，租约将在 {}ms 后过期", workerId, leaseExpiresAt - System.currentTimeMillis(), e);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+-- 订单表按 (user_id, voucher_id) 加唯一约束，开启 hmdp.seckill.order.idempotent-insert 时由数据库兜底一人一单
+-- 执行前先确认没有重复数据：
+-- SELECT user_id, voucher_id, COUNT(*) FROM tb_voucher_order GROUP BY user_id, voucher_id HAVING COUNT(*) > 1;
+ALTER TABLE tb_voucher_order ADD UNIQUE KEY uk_user_voucher (user_id, voucher_id);
@@ -0,0 +1,6 @@
+-- 机器号租约还是自己的才续期
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    -- pexpire key ttl
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
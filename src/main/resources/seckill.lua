@@ -1,23 +1,54 @@
+-- 后面要用 TIME 取当前时间，再写数据，需要按命令（而不是按脚本）复制到从节点
+redis.replicate_commands()
+
 -- 1.参数列表
--- 1.1.优惠券id
+-- 1.1.库存key，分片模式下是用户所在分片的库存key
+local stockKey = KEYS[1]
+-- 1.2.订单key（已下单用户的集合），分片模式下和库存key在同一个分片
+local orderKey = KEYS[2]
+-- 1.3.秒杀时间窗口key（hash：begin、end，毫秒时间戳），和库存key在同一个分片
+local windowKey = KEYS[3]
+-- 1.4.消息队列key，调用方按voucherId取模选好分区，同一张券的订单落在同一个分区，方便消费端按券批量扣库存
+local streamKey = KEYS[4]
+-- 1.5.订单状态key
+local statusKey = KEYS[5]
+-- 1.6.优惠券id
 local voucherId = ARGV[1]
--- 1.2.用户id
+-- 1.7.用户id
 local userId = ARGV[2]
--- 1.3.订单id
+-- 1.8.订单id
 local orderId = ARGV[3]
+-- 1.9.库存是否已经在别处扣过了（比如从其他分片借到了库存），扣过了这里只做一人一单判断和下单
+local stockTaken = ARGV[4] == '1'
+-- 1.10.订单状态的有效期（秒）
+local statusTtl = ARGV[5]
 
--- 2.数据key
--- 2.1.库存key，lua里拼接使用两点，不是用加号
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 2.脚本用到的key都从KEYS传入。库存、用户集合、时间窗口按分片带hash tag，消息队列和订单状态不在同一个slot，
+-- 所以这个脚本只能跑在单个Redis节点（主从、哨兵）上，Redis Cluster 下会报 CROSSSLOT
 
 -- 3.脚本业务
+-- 3.0.判断秒杀是否在时间窗口内，用 Redis 的时钟，所有节点一致。没有窗口（老的券）则不判断
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1]) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 尚未开始，返回3
+        return 3
+    end
+    if (now > tonumber(window[2])) then
+        -- 已经结束，返回4
+        return 4
+    end
+end
 -- 3.1.判断库存是否充足 get stockKey
--- redis.call出来的是字符，所以先tonumber转成数字再比较
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
+-- redis.call出来的是字符，所以先tonumber转成数字再比较，key不存在时为nil
+if (not stockTaken) then
+    local stock = tonumber(redis.call('get', stockKey))
+    if (stock == nil or stock <= 0) then
+        -- 3.2.库存不足，返回1
+        return 1
+    end
 end
 -- 3.2.判断用户是否下单 SISMEMBER orderKey userId
 -- SISMEMBER是redis命令，判断是否是一个集合的成员
@@ -26,10 +57,15 @@ if(redis.call('sismember', orderKey, userId) == 1) then
     return 2
 end
 -- 3.4.扣库存 incrby stockKey -1
-redis.call('incrby', stockKey, -1)
+if (not stockTaken) then
+    redis.call('incrby', stockKey, -1)
+end
 -- 3.5.下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
+-- 3.6.发送消息到队列中， XADD stream.orders:p * k1 v1 k2 v2 ...
 -- 这里 orderId 的 key 建议直接叫id，符合 voucherOrder实体里面的字段
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.7.写入订单状态：排队中，落库后由消费者改成已创建或失败
+redis.call('hset', statusKey, 'status', 'QUEUED', 'userId', userId, 'voucherId', voucherId)
+redis.call('expire', statusKey, statusTtl)
+return 0
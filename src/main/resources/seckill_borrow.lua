@@ -0,0 +1,7 @@
+-- 从某个库存分片借一个库存：库存大于0就扣1并返回1，否则返回0
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+return 1
@@ -0,0 +1,30 @@
+-- 全局令牌桶：按时间补充令牌，够一个就扣掉并返回1，否则返回0
+-- 用 TIME 取当前时间再写数据，需要按命令复制
+redis.replicate_commands()
+
+-- 1.参数列表
+-- 1.1.令牌桶key（hash：tokens 剩余令牌数，ts 上次补充的毫秒时间戳）
+local key = KEYS[1]
+-- 1.2.每秒补充的令牌数
+local rate = tonumber(ARGV[1])
+-- 1.3.桶的容量
+local capacity = tonumber(ARGV[2])
+
+-- 2.按距上次补充的时间补充令牌，不超过容量
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local bucket = redis.call('hmget', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+tokens = math.min(capacity, tokens + math.max(now - ts, 0) * rate / 1000)
+
+-- 3.取一个令牌
+local admitted = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    admitted = 1
+end
+redis.call('hset', key, 'tokens', tostring(tokens), 'ts', now)
+-- 一段时间没有请求就让桶过期，下次从满桶开始
+redis.call('pexpire', key, 60000)
+return admitted
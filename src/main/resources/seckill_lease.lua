@@ -0,0 +1,8 @@
+-- 从库存key租一批库存到本节点：最多租 ARGV[1] 个，不够就把剩下的全租走，返回实际租到的数量
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+local n = math.min(stock, tonumber(ARGV[1]))
+redis.call('decrby', KEYS[1], n)
+return n
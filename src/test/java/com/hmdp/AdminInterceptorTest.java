@@ -0,0 +1,50 @@
+package com.hmdp;
+
+import com.hmdp.config.AdminProperties;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 管理接口权限：未登录401、非管理员403、管理员放行。不启动 Spring 容器
+ */
+public class AdminInterceptorTest {
+
+    @AfterEach
+    public void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    public void onlyConfiguredAdminsPass() throws Exception {
+        AdminProperties adminProperties = new AdminProperties();
+        adminProperties.setUserIds(Collections.singleton(1L));
+        AdminInterceptor interceptor = new AdminInterceptor(adminProperties);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(401, response.getStatus());
+
+        UserHolder.saveUser(user(2L));
+        response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+        assertEquals(403, response.getStatus());
+
+        UserHolder.saveUser(user(1L));
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null));
+    }
+
+    private static UserDTO user(Long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        return user;
+    }
+}
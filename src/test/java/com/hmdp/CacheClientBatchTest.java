@@ -0,0 +1,130 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 批量查询：一次 MGET、没命中的一次查数据库、空值和逻辑过期的处理和单个查询一致。只读写 Redis，数据库由测试模拟
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.local.enabled=false"})
+public class CacheClientBatchTest {
+    private static final String KEY_PREFIX = "cache:test:batch:";
+    // 1号缓存里有，2号缓存了空值，3号只在数据库里，4号哪都没有
+    private static final long CACHED = 9_000_000_801L;
+    private static final long CACHED_NULL = 9_000_000_802L;
+    private static final long IN_DB = 9_000_000_803L;
+    private static final long MISSING = 9_000_000_804L;
+    private static final List<Long> IDS = Arrays.asList(CACHED, CACHED_NULL, IN_DB, MISSING);
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 每次查数据库传进来的id
+    private final List<List<Long>> dbCalls = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(IDS.stream().map(id -> KEY_PREFIX + id).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void passThrough() {
+        stringRedisTemplate.opsForValue().set(KEY_PREFIX + CACHED, JSONUtil.toJsonStr(shop(CACHED, "cached")), 60, TimeUnit.SECONDS);
+        stringRedisTemplate.opsForValue().set(KEY_PREFIX + CACHED_NULL, "", 60, TimeUnit.SECONDS);
+
+        Map<Long, Shop> shops = queryPassThrough();
+        // 按传入顺序返回存在的，没命中的一次查数据库
+        assertEquals(Arrays.asList(CACHED, IN_DB), new ArrayList<>(shops.keySet()));
+        assertEquals("cached", shops.get(CACHED).getName());
+        assertEquals("db", shops.get(IN_DB).getName());
+        assertEquals(Arrays.asList(Arrays.asList(IN_DB, MISSING)), dbCalls);
+        // 数据库里有的写缓存，没有的写空值
+        assertEquals("db", JSONUtil.toBean(stringRedisTemplate.opsForValue().get(KEY_PREFIX + IN_DB), Shop.class).getName());
+        assertEquals("", stringRedisTemplate.opsForValue().get(KEY_PREFIX + MISSING));
+        assertTrue(stringRedisTemplate.getExpire(KEY_PREFIX + MISSING) > 0);
+
+        // 再查一次全部命中缓存
+        assertEquals(Arrays.asList(CACHED, IN_DB), new ArrayList<>(queryPassThrough().keySet()));
+        assertEquals(1, dbCalls.size());
+    }
+
+    @Test
+    public void logicalExpire() throws InterruptedException {
+        writeLogical(CACHED, "old", LocalDateTime.now().minusSeconds(1));
+        writeLogical(IN_DB, "fresh", LocalDateTime.now().plusSeconds(60));
+
+        Map<Long, Shop> shops = cacheClient.queryBatchWithLogicalExpire(KEY_PREFIX, IDS, Shop.class,
+                this::loadFromDb, Shop::getId, 60L, TimeUnit.SECONDS);
+        // 缓存里没有的不返回，过期的先返回旧数据
+        assertEquals(Arrays.asList(CACHED, IN_DB), new ArrayList<>(shops.keySet()));
+        assertEquals("old", shops.get(CACHED).getName());
+        assertEquals("fresh", shops.get(IN_DB).getName());
+
+        // 后台只重建过期的那个
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"db".equals(readLogical(CACHED).getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("db", readLogical(CACHED).getName());
+        assertEquals(Arrays.asList(Arrays.asList(CACHED)), dbCalls);
+        RedisData redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(KEY_PREFIX + CACHED), RedisData.class);
+        assertTrue(redisData.getExpireTime().isAfter(LocalDateTime.now()));
+        assertNotNull(redisData.getRebuildCost());
+    }
+
+    private Map<Long, Shop> queryPassThrough() {
+        return cacheClient.queryBatchWithPassThrough(KEY_PREFIX, IDS, Shop.class,
+                this::loadFromDb, Shop::getId, 60L, TimeUnit.SECONDS);
+    }
+
+    // 模拟 listByIds：只有 IN_DB 和 CACHED 在数据库里
+    private List<Shop> loadFromDb(Collection<Long> ids) {
+        dbCalls.add(new ArrayList<>(ids));
+        return ids.stream()
+                .filter(id -> id == IN_DB || id == CACHED)
+                .map(id -> shop(id, "db"))
+                .collect(Collectors.toList());
+    }
+
+    private void writeLogical(long id, String name, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop(id, name));
+        redisData.setExpireTime(expireTime);
+        stringRedisTemplate.opsForValue().set(KEY_PREFIX + id, JSONUtil.toJsonStr(redisData));
+    }
+
+    private Shop readLogical(long id) {
+        RedisData redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(KEY_PREFIX + id), RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+
+    private static Shop shop(long id, String name) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name);
+        return shop;
+    }
+}
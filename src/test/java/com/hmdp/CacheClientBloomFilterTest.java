@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalBloomFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 布隆过滤器：不存在的id不访问 Redis 和数据库、新增的id能查到、比加载时最大id大的放行、误判率在配置附近。只读写 Redis，id列表由测试提供
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.bloom.enabled=true"})
+public class CacheClientBloomFilterTest {
+    private static final String KEY_PREFIX = "cache:test:bloom:";
+    private static final long EXISTING_ID = 9_000_000_601L;
+    private static final long NEW_ID = 9_000_000_602L;
+    private static final long MISSING_ID = 9_000_000_603L;
+    // 加载时的最大id，比它大的不拦截
+    private static final long MAX_LOADED_ID = 9_000_000_609L;
+    private static final long ABOVE_MAX_ID = 9_000_000_610L;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(KEY_PREFIX + EXISTING_ID, KEY_PREFIX + NEW_ID, KEY_PREFIX + MISSING_ID,
+                KEY_PREFIX + MAX_LOADED_ID, KEY_PREFIX + ABOVE_MAX_ID));
+    }
+
+    @Test
+    public void rejectMissingIds() throws InterruptedException {
+        cacheClient.registerBloomFilter(KEY_PREFIX, () -> Arrays.asList(EXISTING_ID, MAX_LOADED_ID));
+        // 等异步加载完成：加载前不做判断，不存在的id会查数据库
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rejected() == 0 && System.currentTimeMillis() < deadline) {
+            query(MISSING_ID);
+            stringRedisTemplate.delete(KEY_PREFIX + MISSING_ID);
+            Thread.sleep(20);
+        }
+        assertTrue(rejected() > 0);
+        // 1.不存在的id直接返回，不写空值缓存、不查数据库
+        dbCalls.set(0);
+        assertNull(query(MISSING_ID));
+        assertEquals(0, dbCalls.get());
+        assertFalse(stringRedisTemplate.hasKey(KEY_PREFIX + MISSING_ID));
+        // 2.存在的id照常查
+        assertNotNull(query(EXISTING_ID));
+        assertEquals(1, dbCalls.get());
+        // 3.新增的id写入过滤器后能查到
+        assertNull(query(NEW_ID));
+        cacheClient.addToBloomFilter(KEY_PREFIX, NEW_ID);
+        assertNotNull(query(NEW_ID));
+        assertEquals(2, dbCalls.get());
+        // 4.比加载时最大id还大的，没收到新增通知也不拦截
+        assertNotNull(query(ABOVE_MAX_ID));
+        assertEquals(3, dbCalls.get());
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        LocalBloomFilter filter = new LocalBloomFilter(100_000, 0.01, Long.MAX_VALUE);
+        for (int i = 0; i < 100_000; i++) {
+            filter.add(String.valueOf(i));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(String.valueOf(i)));
+        }
+        int falsePositives = 0;
+        for (int i = 100_000; i < 200_000; i++) {
+            if (filter.mightContain(String.valueOf(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "误判 " + falsePositives + " 次");
+        // 超过内存上限时按上限分配
+        assertEquals(1024, new LocalBloomFilter(100_000, 0.01, 1024 * Byte.SIZE).byteSize());
+    }
+
+    private Shop query(long id) {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, id, Shop.class, i -> {
+            dbCalls.incrementAndGet();
+            if (i == MISSING_ID) {
+                return null;
+            }
+            Shop shop = new Shop();
+            shop.setId(i);
+            return shop;
+        }, 60L, TimeUnit.SECONDS);
+    }
+
+    private double rejected() {
+        return meterRegistry.get("cache.bloom.rejected").tag("prefix", KEY_PREFIX).counter().count();
+    }
+}
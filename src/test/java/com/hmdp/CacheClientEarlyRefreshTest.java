@@ -0,0 +1,120 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisData;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 逻辑过期缓存的提前刷新：配置了的前缀在过期前按概率重建，重建后记下耗时；没配置的前缀到期前不重建。只读写 Redis
+ */
+@SpringBootTest(properties = {
+        "hmdp.seckill.order.consumer-enabled=false",
+        "hmdp.cache.local.enabled=false",
+        // properties 格式里冒号是分隔符，要转义
+        "hmdp.cache.early-refresh.[cache\\:test\\:xfetch\\:]=1000000"})
+public class CacheClientEarlyRefreshTest {
+    private static final String XFETCH_PREFIX = "cache:test:xfetch:";
+    private static final String PLAIN_PREFIX = "cache:test:plain:";
+    private static final long ID = 9_000_000_701L;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(XFETCH_PREFIX + ID, PLAIN_PREFIX + ID));
+    }
+
+    @Test
+    public void refreshBeforeExpire() throws InterruptedException {
+        // 重建很慢、beta 很大，还有10s过期也几乎一定会提前刷新
+        writeRedis(XFETCH_PREFIX, "old", 5_000L);
+        double expired = expired();
+        double early = meterRegistry.counter("cache.refresh.early", "prefix", XFETCH_PREFIX).count();
+        assertEquals("old", query(XFETCH_PREFIX).getName());
+        // 提前刷新不算过期
+        assertEquals(early + 1, meterRegistry.counter("cache.refresh.early", "prefix", XFETCH_PREFIX).count());
+        assertEquals(expired, expired());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"db".equals(readRedis(XFETCH_PREFIX).getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, dbCalls.get());
+        RedisData redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(XFETCH_PREFIX + ID), RedisData.class);
+        assertEquals("db", readRedis(XFETCH_PREFIX).getName());
+        assertNotNull(redisData.getRebuildCost());
+    }
+
+    @Test
+    public void noRefreshWithoutBeta() throws InterruptedException {
+        writeRedis(PLAIN_PREFIX, "old", 5_000L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("old", query(PLAIN_PREFIX).getName());
+        }
+        Thread.sleep(200);
+        assertEquals(0, dbCalls.get());
+    }
+
+    private double expired() {
+        return meterRegistry.counter("cache.lookups", "prefix", XFETCH_PREFIX, "result", "expired").count();
+    }
+
+    private Shop query(String prefix) {
+        return cacheClient.queryWithLogicalExpire(prefix, ID, Shop.class, id -> {
+            dbCalls.incrementAndGet();
+            sleep(50);
+            return shop("db");
+        }, 60L, TimeUnit.SECONDS);
+    }
+
+    private void writeRedis(String prefix, String name, Long rebuildCost) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop(name));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(10));
+        redisData.setRebuildCost(rebuildCost);
+        stringRedisTemplate.opsForValue().set(prefix + ID, JSONUtil.toJsonStr(redisData));
+    }
+
+    private Shop readRedis(String prefix) {
+        RedisData redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(prefix + ID), RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+
+    private static Shop shop(String name) {
+        Shop shop = new Shop();
+        shop.setId(ID);
+        shop.setName(name);
+        return shop;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisData;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CacheClient 的本地缓存：命中不访问 Redis、写入时删除本地缓存、收到其他节点的失效通知删除本地缓存。只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.local.enabled=true"})
+public class CacheClientLocalCacheTest {
+    private static final String KEY_PREFIX = "cache:test:";
+    private static final long ID = 9_000_000_501L;
+    private static final String KEY = KEY_PREFIX + ID;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger dbCalls = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        cacheClient.delete(KEY);
+    }
+
+    @Test
+    public void localHitSkipsRedis() {
+        cacheClient.setWithLogicalExpire(KEY, shop("v1"), 60L, TimeUnit.SECONDS);
+        assertEquals("v1", query().getName());
+        double hits = localRequests("hit");
+        // 绕过 CacheClient 直接改 Redis，本地缓存命中时看不到
+        writeRedis("v2");
+        assertEquals("v1", query().getName());
+        assertEquals(hits + 1, localRequests("hit"));
+        assertTrue(meterRegistry.get("cache.hit.ratio").tag("tier", "local").gauge().value() > 0);
+        // 通过 CacheClient 写入会删除本地缓存
+        cacheClient.setWithLogicalExpire(KEY, shop("v3"), 60L, TimeUnit.SECONDS);
+        assertEquals("v3", query().getName());
+        assertEquals(0, dbCalls.get());
+    }
+
+    @Test
+    public void invalidatedByOtherNode() throws InterruptedException {
+        cacheClient.setWithLogicalExpire(KEY, shop("v1"), 60L, TimeUnit.SECONDS);
+        assertEquals("v1", query().getName());
+        writeRedis("v2");
+        // 模拟其他节点修改数据后发出的失效通知
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, "other-node|" + KEY);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"v2".equals(query().getName()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("v2", query().getName());
+    }
+
+    @Test
+    public void passThroughCachesNull() {
+        assertNull(cacheClient.queryWithPassThrough(KEY_PREFIX, ID, Shop.class, this::loadNull, 60L, TimeUnit.SECONDS));
+        double hits = localRequests("hit");
+        assertNull(cacheClient.queryWithPassThrough(KEY_PREFIX, ID, Shop.class, this::loadNull, 60L, TimeUnit.SECONDS));
+        assertEquals(1, dbCalls.get());
+        assertEquals(hits + 1, localRequests("hit"));
+    }
+
+    private Shop query() {
+        return cacheClient.queryWithLogicalExpire(KEY_PREFIX, ID, Shop.class, id -> {
+            dbCalls.incrementAndGet();
+            return shop("db");
+        }, 60L, TimeUnit.SECONDS);
+    }
+
+    private Shop loadNull(Long id) {
+        dbCalls.incrementAndGet();
+        return null;
+    }
+
+    private void writeRedis(String name) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop(name));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(60));
+        stringRedisTemplate.opsForValue().set(KEY, JSONUtil.toJsonStr(redisData));
+    }
+
+    private double localRequests(String result) {
+        return meterRegistry.get("cache.requests").tag("tier", "local").tag("result", result).functionCounter().count();
+    }
+
+    private static Shop shop(String name) {
+        Shop shop = new Shop();
+        shop.setId(ID);
+        shop.setName(name);
+        return shop;
+    }
+}
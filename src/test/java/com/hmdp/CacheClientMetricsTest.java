@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.RedisData;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CacheClient 按key前缀的指标：各种命中结果、重建次数、耗时分布、重建线程池，以及命中路径上记录指标不分配对象。只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.local.enabled=false"})
+public class CacheClientMetricsTest {
+    private static final String KEY_PREFIX = "cache:test:metrics:";
+    private static final long ID = 9_000_000_901L;
+    private static final long MISSING_ID = 9_000_000_902L;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(Arrays.asList(KEY_PREFIX + ID, KEY_PREFIX + MISSING_ID));
+    }
+
+    @Test
+    public void lookupResults() throws InterruptedException {
+        // 1.没命中，查数据库重建；再查命中；不存在的id缓存空值，再查命中空值
+        queryPassThrough(ID);
+        queryPassThrough(ID);
+        queryPassThrough(MISSING_ID);
+        queryPassThrough(MISSING_ID);
+        assertEquals(2, lookups("miss"));
+        assertEquals(1, lookups("hit"));
+        assertEquals(1, lookups("null"));
+        assertEquals(2, meterRegistry.get("cache.rebuilds").tag("prefix", KEY_PREFIX).tag("result", "success").counter().count());
+        // 2.逻辑过期的命中，后台重建
+        stringRedisTemplate.delete(KEY_PREFIX + ID);
+        RedisData redisData = new RedisData();
+        redisData.setData(new Shop());
+        redisData.setExpireTime(LocalDateTime.now().minusSeconds(1));
+        stringRedisTemplate.opsForValue().set(KEY_PREFIX + ID, JSONUtil.toJsonStr(redisData));
+        cacheClient.queryWithLogicalExpire(KEY_PREFIX, ID, Shop.class, id -> new Shop(), 60L, TimeUnit.SECONDS);
+        assertEquals(1, lookups("expired"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rebuilds() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(3, rebuilds());
+        // 3.耗时分布和重建线程池
+        assertEquals(5, meterRegistry.get("cache.redis.latency").tag("prefix", KEY_PREFIX).timer().count());
+        assertEquals(2, meterRegistry.get("cache.decode.latency").tag("prefix", KEY_PREFIX).timer().count());
+        assertEquals(3, meterRegistry.get("cache.db.latency").tag("prefix", KEY_PREFIX).timer().count());
+        assertEquals(0, meterRegistry.get("cache.rebuild.queue").gauge().value());
+        assertEquals(0, meterRegistry.get("cache.rebuild.rejected").counter().count());
+    }
+
+    @Test
+    public void recordWithoutAllocation() {
+        CacheMetrics.Prefix m = new CacheMetrics(new SimpleMeterRegistry()).of(KEY_PREFIX);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // 前两轮预热，让 JIT 编译和计数器的内部结构都初始化好；和其他测试一起跑时编译可能更晚，取之后几轮里最少的一次
+        long min = Long.MAX_VALUE;
+        for (int round = 0; round < 10 && min >= 10_000; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100_000; i++) {
+                long start = System.nanoTime();
+                m.redis(start);
+                m.hit();
+                m.decode(start);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            if (round >= 2) {
+                min = Math.min(min, allocated);
+            }
+        }
+        // 十万次记录，允许测量本身的一点零头
+        assertTrue(min < 10_000, "分配了 " + min + " 字节");
+    }
+
+    private void queryPassThrough(long id) {
+        cacheClient.queryWithPassThrough(KEY_PREFIX, id, Shop.class, i -> i == ID ? new Shop() : null, 60L, TimeUnit.SECONDS);
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("cache.lookups").tag("prefix", KEY_PREFIX).tag("result", result).counter().count();
+    }
+
+    private double rebuilds() {
+        return meterRegistry.get("cache.rebuilds").tag("prefix", KEY_PREFIX).tag("result", "success").counter().count();
+    }
+}
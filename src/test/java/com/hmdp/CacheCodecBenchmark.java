@@ -0,0 +1,103 @@
+package com.hmdp;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存值编码的 JMH 基准测试：json 和 smile 编码、解码逻辑过期的 Shop 和 Blog 的耗时，编码后的大小在启动时打印。
+ * 不连 Redis，直接 main 方法运行，或者 java -cp ... org.openjdk.jmh.Main CacheCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "smile"})
+    private String codecName;
+
+    private CacheCodec codec;
+
+    private RedisData shop;
+
+    private RedisData blog;
+
+    private byte[] shopBytes;
+
+    private byte[] blogBytes;
+
+    @Setup
+    public void setUp() {
+        codec = "smile".equals(codecName) ? CacheCodecTest.smileCodec(DataSize.ofKilobytes(1)) : new JsonCacheCodec();
+        shop = redisData(CacheCodecTest.shop("103茶餐厅"));
+        blog = redisData(blog());
+        shopBytes = codec.encodeLogical(shop);
+        blogBytes = codec.encodeLogical(blog);
+        System.out.printf("%n%s: Shop %d 字节, Blog %d 字节%n", codecName, shopBytes.length, blogBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return codec.encodeLogical(shop);
+    }
+
+    @Benchmark
+    public RedisData decodeShop() {
+        return codec.decodeLogical(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBlog() {
+        return codec.encodeLogical(blog);
+    }
+
+    @Benchmark
+    public RedisData decodeBlog() {
+        return codec.decodeLogical(blogBytes, Blog.class);
+    }
+
+    private static RedisData redisData(Object data) {
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisData.setRebuildCost(5L);
+        return redisData;
+    }
+
+    // 正文比较长的探店笔记，smile 编码后超过压缩阈值
+    private static Blog blog() {
+        Blog blog = new Blog();
+        blog.setId(4L);
+        blog.setShopId(4L);
+        blog.setUserId(2L);
+        blog.setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩");
+        blog.setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg");
+        blog.setContent(StrUtil.repeat("生活就是一半烟火·一半诗意<br>手执烟火谋生活·心怀诗意以谋爱·<br>当然<br>"
+                + "男朋友给不了的浪漫要学会自己给🍒<br>无法重来的一生·尽量快乐.<br><br>", 8));
+        blog.setLiked(1);
+        blog.setComments(104);
+        blog.setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1));
+        blog.setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+        return blog;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SmileCacheCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存值的编码：smile 编解码、压缩、逻辑过期头，以及读 json 写的旧数据。不启动 Spring 容器
+ */
+public class CacheCodecTest {
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Test
+    public void smileRoundTrip() {
+        SmileCacheCodec codec = smileCodec(DataSize.ofKilobytes(1));
+        Shop shop = shop("103茶餐厅");
+        byte[] bytes = codec.encode(shop);
+        assertTrue(bytes.length < jsonCodec.encode(shop).length);
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+
+        RedisData redisData = redisData(shop);
+        RedisData decoded = codec.decodeLogical(codec.encodeLogical(redisData), Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(redisData.getRebuildCost(), decoded.getRebuildCost());
+        assertEquals(shop, decoded.getData());
+    }
+
+    @Test
+    public void compressAboveThreshold() {
+        // 一个很长的店铺名，压缩后明显变小
+        Shop shop = shop(StrUtil.repeat("茶餐厅", 1000));
+        byte[] plain = smileCodec(DataSize.ofBytes(0)).encodeLogical(redisData(shop));
+        SmileCacheCodec codec = smileCodec(DataSize.ofBytes(256));
+        byte[] compressed = codec.encodeLogical(redisData(shop));
+        assertTrue(compressed.length < plain.length / 4);
+        assertEquals(shop, codec.decodeLogical(compressed, Shop.class).getData());
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    public void smileReadsJson() {
+        SmileCacheCodec codec = smileCodec(DataSize.ofKilobytes(1));
+        Shop shop = shop("103茶餐厅");
+        assertEquals(shop.getName(), codec.decode(jsonCodec.encode(shop), Shop.class).getName());
+        RedisData decoded = codec.decodeLogical(jsonCodec.encodeLogical(redisData(shop)), Shop.class);
+        assertEquals(shop.getName(), ((Shop) decoded.getData()).getName());
+        assertNull(decoded.getRebuildCost());
+    }
+
+    static SmileCacheCodec smileCodec(DataSize compressThreshold) {
+        CacheProperties properties = new CacheProperties();
+        properties.setCompressThreshold(compressThreshold);
+        SmileCacheCodec codec = new SmileCacheCodec();
+        ReflectUtil.setFieldValue(codec, "cacheProperties", properties);
+        return codec;
+    }
+
+    private static RedisData redisData(Object data) {
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        // 头里存的是毫秒数
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(30).truncatedTo(ChronoUnit.MILLIS));
+        return redisData;
+    }
+
+    static Shop shop(String name) {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName(name);
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import javax.annotation.Resource;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 缓存失效：事务提交后才删除、回滚不删除、延迟双删、删除失败重试。事务同步手动模拟，不连数据库，只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false",
+        "hmdp.cache.invalidation.delayed-delete=300ms", "hmdp.cache.invalidation.retry-interval=100ms"})
+public class CacheInvalidatorTest {
+    private static final String KEY1 = "cache:test:invalidate:1";
+    private static final String KEY2 = "cache:test:invalidate:2";
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        stringRedisTemplate.delete(KEY1);
+        stringRedisTemplate.delete(KEY2);
+    }
+
+    @Test
+    public void deletesAfterCommitAndAgainAfterDelay() throws InterruptedException {
+        stringRedisTemplate.opsForValue().set(KEY1, "old");
+        stringRedisTemplate.opsForValue().set(KEY2, "old");
+        TransactionSynchronizationManager.initSynchronization();
+        cacheInvalidator.invalidate(KEY1);
+        cacheInvalidator.invalidate(KEY2);
+        cacheInvalidator.invalidate(KEY1);
+        // 提交前不删除
+        assertEquals("old", stringRedisTemplate.opsForValue().get(KEY1));
+        assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertNull(stringRedisTemplate.opsForValue().get(KEY1));
+        assertNull(stringRedisTemplate.opsForValue().get(KEY2));
+        // 提交前后并发的查询写回了旧数据，延迟双删再删一次
+        stringRedisTemplate.opsForValue().set(KEY1, "stale");
+        Thread.sleep(600);
+        assertNull(stringRedisTemplate.opsForValue().get(KEY1));
+    }
+
+    @Test
+    public void rollbackKeepsCache() {
+        stringRedisTemplate.opsForValue().set(KEY1, "old");
+        TransactionSynchronizationManager.initSynchronization();
+        cacheInvalidator.invalidate(KEY1);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertEquals("old", stringRedisTemplate.opsForValue().get(KEY1));
+        assertNull(TransactionSynchronizationManager.getResource(cacheInvalidator));
+    }
+
+    @Test
+    public void retriesFailedDelete() throws InterruptedException {
+        stringRedisTemplate.opsForValue().set(KEY1, "old");
+        CacheClient spy = spy(cacheClient);
+        doThrow(new RedisConnectionFailureException("模拟Redis不可用")).doCallRealMethod()
+                .when(spy).deleteBatch(anyCollection(), anyBoolean());
+        double failed = invalidations("failed");
+        ReflectUtil.setFieldValue(cacheInvalidator, "cacheClient", spy);
+        try {
+            cacheInvalidator.invalidate(KEY1);
+            assertEquals(failed + 1, invalidations("failed"));
+            assertEquals("old", stringRedisTemplate.opsForValue().get(KEY1));
+            // 重试间隔100ms，比延迟双删早
+            long deadline = System.currentTimeMillis() + 250;
+            while (stringRedisTemplate.hasKey(KEY1) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull(stringRedisTemplate.opsForValue().get(KEY1));
+        } finally {
+            ReflectUtil.setFieldValue(cacheInvalidator, "cacheClient", cacheClient);
+        }
+    }
+
+    // 模拟事务结束
+    private static void complete(int status) {
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        }
+        TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(), status);
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private double invalidations(String result) {
+        return meterRegistry.get("cache.invalidations").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,137 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.WarmupProgressDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HmCached;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存预热：按游标分页查询、并行写入所有数据，过期时间带随机，按注册的策略写入对应格式。数据来源是内存里的列表，只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.warmup.page-size=100",
+        "hmdp.cache.warmup.jitter=0.5"})
+public class CacheWarmerTest {
+    private static final String KEY_PREFIX = "cache:test:warmup:";
+    private static final String TTL_PREFIX = "cache:test:warmup:ttl:";
+    private static final int COUNT = 1050;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    public void warmsAllPages() throws InterruptedException {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= COUNT; id++) {
+            Shop shop = new Shop();
+            shop.setId(id * 2);
+            shop.setName("shop" + id);
+            shops.add(shop);
+        }
+        List<Long> cursors = new ArrayList<>();
+        cacheWarmer.register(KEY_PREFIX, (lastId, limit) -> {
+            cursors.add(lastId);
+            return shops.stream().filter(s -> s.getId() > lastId).limit(limit).collect(Collectors.toList());
+        }, Shop::getId, 600L, TimeUnit.SECONDS, HmCached.Strategy.LOGICAL_EXPIRE);
+        try {
+            cacheWarmer.warmUp(KEY_PREFIX);
+            WarmupProgressDTO progress = awaitDone(KEY_PREFIX);
+            assertEquals("done", progress.getStatus());
+            assertEquals(COUNT, progress.getWritten());
+            assertEquals(11, progress.getPages());
+            // 第一页从0开始，之后每页从上一页最后一个id开始
+            assertEquals(0L, cursors.get(0));
+            assertEquals(200L, cursors.get(1));
+            // 全部写进 Redis，逻辑过期时间在 [600s, 900s] 之间且不都一样
+            Set<LocalDateTime> expireTimes = new HashSet<>();
+            LocalDateTime now = LocalDateTime.now();
+            for (Shop shop : shops) {
+                Shop cached = cacheClient.queryWithLogicalExpire(KEY_PREFIX, shop.getId(), Shop.class, id -> {
+                    throw new IllegalStateException("不应该查数据库");
+                }, 600L, TimeUnit.SECONDS);
+                assertEquals(shop.getName(), cached.getName());
+            }
+            for (Shop shop : shops.subList(0, 50)) {
+                LocalDateTime expireTime = expireTime(KEY_PREFIX + shop.getId());
+                assertTrue(expireTime.isAfter(now.plusSeconds(590)));
+                assertTrue(expireTime.isBefore(now.plusSeconds(901)));
+                expireTimes.add(expireTime);
+            }
+            assertTrue(expireTimes.size() > 1);
+        } finally {
+            Set<String> keys = shops.stream().map(s -> KEY_PREFIX + s.getId()).collect(Collectors.toSet());
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    @Test
+    public void passThroughPrefixWritesPlainValueWithTtl() throws InterruptedException {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 150; id++) {
+            Shop shop = new Shop();
+            shop.setId(id);
+            shop.setName("shop" + id);
+            shops.add(shop);
+        }
+        cacheWarmer.register(TTL_PREFIX, (lastId, limit) ->
+                shops.stream().filter(s -> s.getId() > lastId).limit(limit).collect(Collectors.toList()),
+                Shop::getId, 600L, TimeUnit.SECONDS, HmCached.Strategy.PASS_THROUGH);
+        try {
+            cacheWarmer.warmUp(TTL_PREFIX);
+            assertEquals("done", awaitDone(TTL_PREFIX).getStatus());
+            // 缓存穿透的查询直接读到，不查数据库；key带TTL，在 [600s, 900s] 之间
+            for (Shop shop : shops) {
+                Shop cached = cacheClient.queryWithPassThrough(TTL_PREFIX, shop.getId(), Shop.class, id -> {
+                    throw new IllegalStateException("不应该查数据库");
+                }, 600L, TimeUnit.SECONDS);
+                assertEquals(shop.getName(), cached.getName());
+                long ttl = stringRedisTemplate.getExpire(TTL_PREFIX + shop.getId());
+                assertTrue(ttl > 590 && ttl <= 900);
+            }
+        } finally {
+            Set<String> keys = shops.stream().map(s -> TTL_PREFIX + s.getId()).collect(Collectors.toSet());
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private WarmupProgressDTO awaitDone(String keyPrefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (WarmupProgressDTO progress : cacheWarmer.progress()) {
+                if (keyPrefix.equals(progress.getKeyPrefix()) && !"running".equals(progress.getStatus())) {
+                    return progress;
+                }
+            }
+            Thread.sleep(20);
+        }
+        fail("预热超时");
+        return null;
+    }
+
+    private LocalDateTime expireTime(String key) {
+        String json = stringRedisTemplate.opsForValue().get(key);
+        return JSONUtil.toBean(json, RedisData.class).getExpireTime();
+    }
+}
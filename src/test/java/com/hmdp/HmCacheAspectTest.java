@@ -0,0 +1,116 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HmCacheEvict;
+import com.hmdp.utils.HmCached;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存注解：查询走 CacheClient、正常返回后删除缓存、参数下标校验。被缓存的方法在测试里定义，只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.local.enabled=false"})
+public class HmCacheAspectTest {
+    private static final String KEY_PREFIX = "cache:test:aspect:";
+    private static final String LOGICAL_PREFIX = "cache:test:aspect:logical:";
+    private static final long ID = 9_000_000_801L;
+
+    @Resource
+    private ShopLookup shopLookup;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @AfterEach
+    public void tearDown() {
+        cacheClient.delete(KEY_PREFIX + ID);
+        cacheClient.delete(LOGICAL_PREFIX + ID);
+    }
+
+    @Test
+    public void passThroughAndEvict() {
+        assertEquals("db1", shopLookup.get("ignored", ID).getName());
+        assertEquals("db1", shopLookup.get("ignored", ID).getName());
+        assertEquals(1, shopLookup.calls());
+        // 方法抛异常时不删除
+        assertThrows(IllegalArgumentException.class, () -> shopLookup.update(ID, true));
+        assertEquals("db1", shopLookup.get("ignored", ID).getName());
+        // 正常返回后删除，下次重新查
+        shopLookup.update(ID, false);
+        assertEquals("db2", shopLookup.get("ignored", ID).getName());
+        assertEquals(2, shopLookup.calls());
+        // id为空不走缓存
+        assertEquals("db3", shopLookup.get("ignored", null).getName());
+    }
+
+    @Test
+    public void logicalExpireReadsWarmedEntry() {
+        // 没预热时返回null，不查数据库
+        assertNull(shopLookup.getLogical(ID));
+        cacheClient.setWithLogicalExpire(LOGICAL_PREFIX + ID, ShopLookup.shop("warmed"), 60L, TimeUnit.SECONDS);
+        assertEquals("warmed", shopLookup.getLogical(ID).getName());
+        assertEquals(0, shopLookup.calls());
+    }
+
+    @Test
+    public void badKeyIndexFails() {
+        assertThrows(IllegalStateException.class, () -> shopLookup.badKey(ID));
+    }
+
+    @TestConfiguration
+    static class Config {
+        @Bean
+        public ShopLookup shopLookup() {
+            return new ShopLookup();
+        }
+    }
+
+    public static class ShopLookup {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        // 代理对象上的字段是空的，要通过方法取
+        public int calls() {
+            return calls.get();
+        }
+
+        @HmCached(prefix = KEY_PREFIX, ttl = 60, unit = TimeUnit.SECONDS, key = 1)
+        public Shop get(String ignored, Long id) {
+            return shop("db" + calls.incrementAndGet());
+        }
+
+        @HmCached(prefix = LOGICAL_PREFIX, ttl = 60, unit = TimeUnit.SECONDS, strategy = HmCached.Strategy.LOGICAL_EXPIRE)
+        public Shop getLogical(Long id) {
+            calls.incrementAndGet();
+            return shop("db");
+        }
+
+        @HmCached(prefix = KEY_PREFIX, ttl = 60, key = 1)
+        public Shop badKey(Long id) {
+            return null;
+        }
+
+        @HmCacheEvict(prefix = KEY_PREFIX)
+        public void update(Long id, boolean fail) {
+            if (fail) {
+                throw new IllegalArgumentException("更新失败");
+            }
+        }
+
+        static Shop shop(String name) {
+            Shop shop = new Shop();
+            shop.setId(ID);
+            shop.setName(name);
+            return shop;
+        }
+    }
+}
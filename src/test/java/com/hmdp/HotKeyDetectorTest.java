@@ -0,0 +1,112 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.HotKeyDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 热点key探测：超过阈值提升、冷下来降级、topK 排序，以及热点key走本地副本（本地缓存关闭）。只读写 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.cache.local.enabled=false",
+        "hmdp.cache.hot-key.enabled=true", "hmdp.cache.hot-key.threshold=50",
+        // 阈值很小，每次都记才能准确提升
+        "hmdp.cache.hot-key.sample-rate=1"})
+public class HotKeyDetectorTest {
+    private static final String KEY_PREFIX = "cache:test:hot:";
+    private static final long ID = 9_000_000_701L;
+    private static final String KEY = KEY_PREFIX + ID;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    public void promotesAndDemotes() throws InterruptedException {
+        List<String> demoted = new ArrayList<>();
+        HotKeyDetector detector = new HotKeyDetector(1024, 4, 200, 100, 1, 3, demoted::add);
+        for (int i = 0; i < 99; i++) {
+            assertFalse(detector.record("hot"));
+        }
+        assertTrue(detector.record("hot"));
+        assertTrue(detector.isHot("hot"));
+        // 两个窗口都过去后计数清零，下次窗口切换时降级
+        Thread.sleep(450);
+        assertFalse(detector.record("other"));
+        assertFalse(detector.isHot("hot"));
+        assertEquals(1, demoted.size());
+        assertEquals("hot", demoted.get(0));
+    }
+
+    @Test
+    public void topKeysOrderedByCount() {
+        HotKeyDetector detector = new HotKeyDetector(1024, 4, 60_000, 1000, 1, 2, key -> { });
+        for (int i = 0; i < 30; i++) {
+            detector.record("a");
+        }
+        for (int i = 0; i < 10; i++) {
+            detector.record("b");
+        }
+        for (int i = 0; i < 20; i++) {
+            detector.record("c");
+        }
+        List<HotKeyDTO> top = detector.topKeys();
+        assertEquals(2, top.size());
+        assertEquals("a", top.get(0).getKey());
+        assertEquals(30L, top.get(0).getCount());
+        assertEquals("c", top.get(1).getKey());
+        assertFalse(top.get(0).getHot());
+    }
+
+    @Test
+    public void hotKeyServedFromReplica() {
+        try {
+            writeRedis("v1");
+            for (int i = 0; i < 60; i++) {
+                assertEquals("v1", query().getName());
+            }
+            // 已经是热点，副本命中时看不到绕过 CacheClient 的修改
+            writeRedis("v2");
+            assertEquals("v1", query().getName());
+            assertTrue(cacheClient.hotKeys().stream().anyMatch(k -> KEY.equals(k.getKey()) && k.getHot()));
+            // 通过 CacheClient 删除时副本也删掉
+            cacheClient.evictLocal(KEY);
+            assertEquals("v2", query().getName());
+        } finally {
+            cacheClient.delete(KEY);
+        }
+    }
+
+    private Shop query() {
+        return cacheClient.queryWithLogicalExpire(KEY_PREFIX, ID, Shop.class, id -> shop("db"), 60L, TimeUnit.SECONDS);
+    }
+
+    private void writeRedis(String name) {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop(name));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(60));
+        stringRedisTemplate.opsForValue().set(KEY, JSONUtil.toJsonStr(redisData));
+    }
+
+    private static Shop shop(String name) {
+        Shop shop = new Shop();
+        shop.setId(ID);
+        shop.setName(name);
+        return shop;
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.IdWorkerProperties;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * id生成器的 JMH 基准测试：逐个 INCR、号段模式、snowflake 单个和批量生成。需要连本地 Redis，
+ * 不启动 Spring 容器，直接 main 方法运行，或者 java -cp ... org.openjdk.jmh.Main IdWorkerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(4)
+public class IdWorkerBenchmark {
+    private static final String KEY_PREFIX = "bench";
+    private static final int BATCH = 100;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RedisIdWorker incrWorker;
+
+    private RedisIdWorker segmentWorker;
+
+    private SnowflakeIdWorker snowflakeWorker;
+
+    @Setup
+    public void setUp() throws Exception {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration("127.0.0.1", 6379);
+        config.setPassword("123321");
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        IdWorkerProperties incr = new IdWorkerProperties();
+        incr.getSegment().setEnabled(false);
+        incrWorker = newWorker(new RedisIdWorker(), incr);
+        IdWorkerProperties segment = new IdWorkerProperties();
+        segment.getSegment().setEnabled(true);
+        segmentWorker = newWorker(new RedisIdWorker(), segment);
+        snowflakeWorker = newWorker(new SnowflakeIdWorker(), new IdWorkerProperties());
+        ReflectUtil.setFieldValue(snowflakeWorker, "meterRegistry", new SimpleMeterRegistry());
+        // 租机器号
+        invoke(snowflakeWorker, "init");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        invoke(snowflakeWorker, "destroy");
+        invoke(segmentWorker, "destroy");
+        invoke(incrWorker, "destroy");
+        stringRedisTemplate.delete("icr:" + KEY_PREFIX + ":" + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd")));
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return incrWorker.nextId(KEY_PREFIX);
+    }
+
+    @Benchmark
+    public long redisSegment() {
+        return segmentWorker.nextId(KEY_PREFIX);
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeWorker.nextId(KEY_PREFIX);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] snowflakeBatch() {
+        return snowflakeWorker.nextIds(KEY_PREFIX, BATCH);
+    }
+
+    private <T> T newWorker(T worker, IdWorkerProperties properties) {
+        ReflectUtil.setFieldValue(worker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(worker, "idWorkerProperties", properties);
+        return worker;
+    }
+
+    private static void invoke(Object target, String name) throws Exception {
+        Method method = target.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        method.invoke(target);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(IdWorkerBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,154 @@
+package com.hmdp;
+
+import cn.hutool.core.io.FileUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.OrderJournal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单本地日志：分段写入、读取回放、段数上限和崩溃恢复。只读写本地文件，回放线程的间隔设得很长，不会去连数据库
+ */
+@SpringBootTest(properties = {
+        "hmdp.seckill.order.consumer-enabled=false",
+        "hmdp.seckill.journal.enabled=true",
+        "hmdp.seckill.journal.dir=target/order-journal-test",
+        "hmdp.seckill.journal.segment-size=320B", // 每段10条
+        "hmdp.seckill.journal.max-segments=3",
+        "hmdp.seckill.journal.replay-interval=1h"})
+public class OrderJournalTest {
+    private static final int PER_SEGMENT = 10;
+
+    @Resource
+    private OrderJournal orderJournal;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    private long nextId = 1;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        orderJournal.close();
+        FileUtil.del(new File(seckillProperties.getJournal().getDir()));
+        orderJournal.open();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        orderJournal.close();
+        FileUtil.del(new File(seckillProperties.getJournal().getDir()));
+    }
+
+    @Test
+    public void appendReadAndRollover() throws IOException {
+        // 1.写满两段半
+        List<VoucherOrder> written = orders(25);
+        assertTrue(orderJournal.append(written));
+        assertEquals(3, segmentFiles().length);
+        // 2.已经有3段，剩下的空间只有5条，放不下整批就一条都不写
+        assertFalse(orderJournal.append(orders(10)));
+        assertEquals(25, orderJournal.backlog());
+
+        // 3.读出12条，不提交的话下次还从头读
+        assertEquals(ids(written.subList(0, 12)), ids(orderJournal.read(12)));
+        assertEquals(ids(written.subList(0, 12)), ids(orderJournal.read(12)));
+        // 4.提交后第一段回放完了，删掉，空出来的段可以继续写
+        orderJournal.commit();
+        assertEquals(13, orderJournal.backlog());
+        assertEquals(2, segmentFiles().length);
+        List<VoucherOrder> more = orders(10);
+        assertTrue(orderJournal.append(more));
+
+        // 5.剩下的按写入顺序全部读出
+        List<VoucherOrder> rest = new ArrayList<>(written.subList(12, 25));
+        rest.addAll(more);
+        assertEquals(ids(rest), ids(orderJournal.read(100)));
+        orderJournal.commit();
+        assertFalse(orderJournal.hasBacklog());
+        assertTrue(orderJournal.read(100).isEmpty());
+    }
+
+    @Test
+    public void recoverTornWrite() throws IOException {
+        List<VoucherOrder> written = orders(15);
+        assertTrue(orderJournal.append(written));
+        orderJournal.read(3);
+        orderJournal.commit();
+        orderJournal.close();
+
+        // 1.模拟崩溃：最后一段第6条只写了长度和一半内容，校验和对不上
+        File last = segmentFiles()[segmentFiles().length - 1];
+        try (RandomAccessFile raf = new RandomAccessFile(last, "rw")) {
+            raf.seek(5L * OrderJournal.RECORD_SIZE);
+            raf.writeInt(24);
+            raf.writeInt(12345);
+            raf.writeLong(99);
+        }
+        // 2.重启后从回放进度恢复，写了一半的记录被清掉，未回放的是第4~15条
+        orderJournal.open();
+        assertEquals(12, orderJournal.backlog());
+        List<VoucherOrder> more = orders(1);
+        assertTrue(orderJournal.append(more));
+        List<VoucherOrder> expected = new ArrayList<>(written.subList(3, 15));
+        expected.addAll(more);
+        assertEquals(ids(expected), ids(orderJournal.read(100)));
+    }
+
+    @Test
+    public void recoverCorruptedRecord() throws IOException {
+        List<VoucherOrder> written = orders(5);
+        assertTrue(orderJournal.append(written));
+        orderJournal.close();
+
+        // 第3条的内容损坏，它和后面的记录都不能回放
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFiles()[0], "rw")) {
+            raf.seek(2L * OrderJournal.RECORD_SIZE + 12);
+            raf.writeByte(0x7f);
+        }
+        orderJournal.open();
+        assertEquals(2, orderJournal.backlog());
+        assertEquals(ids(written.subList(0, 2)), ids(orderJournal.read(100)));
+        // 损坏处之后可以继续写入
+        List<VoucherOrder> more = orders(PER_SEGMENT);
+        assertTrue(orderJournal.append(more));
+        assertEquals(2 + PER_SEGMENT, orderJournal.read(100).size());
+    }
+
+    private List<VoucherOrder> orders(int n) {
+        List<VoucherOrder> orders = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long id = nextId++;
+            orders.add(new VoucherOrder().setId(id).setUserId(1000 + id).setVoucherId(9_000_000_601L));
+        }
+        return orders;
+    }
+
+    private static List<Long> ids(List<VoucherOrder> orders) {
+        List<Long> ids = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            ids.add(order.getId());
+        }
+        return ids;
+    }
+
+    private File[] segmentFiles() {
+        // hutool 的 FileUtil.file 会把相对路径当成 classpath 下的路径，这里直接用 File
+        File[] files = new File(seckillProperties.getJournal().getDir()).listFiles((d, name) -> name.endsWith(".log"));
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp;
+
+import com.hmdp.utils.RebuildScheduler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 重建调度：同一个key不重复提交、按前缀限制并发、排队上限、关闭时执行完已提交的任务。不启动 Spring 容器
+ */
+public class RebuildSchedulerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void prefixLimitDoesNotStarveOthers() throws InterruptedException {
+        // 4个线程，blog 前缀最多同时1个，shop 用默认的2个
+        RebuildScheduler scheduler = new RebuildScheduler(4, 10, 2,
+                Collections.singletonMap("cache:blog:", 1), meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger blogRunning = new AtomicInteger();
+        AtomicInteger blogMax = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scheduler.submit("cache:blog:", key("cache:blog:", i), () -> {
+                blogMax.accumulateAndGet(blogRunning.incrementAndGet(), Math::max);
+                await(release);
+                blogRunning.decrementAndGet();
+            }));
+        }
+        // 同一个key还在排队，不再提交
+        assertTrue(scheduler.isPending("cache:blog:4"));
+        assertFalse(scheduler.submit("cache:blog:", key("cache:blog:", 4), () -> { }));
+        // blog 只占了1个线程，shop 照常执行
+        CountDownLatch shopDone = new CountDownLatch(2);
+        assertTrue(scheduler.submit("cache:shop:", key("cache:shop:", 1), shopDone::countDown));
+        assertTrue(scheduler.submit("cache:shop:", key("cache:shop:", 2), shopDone::countDown));
+        assertTrue(shopDone.await(5, TimeUnit.SECONDS));
+        assertEquals(4, meterRegistry.get("cache.rebuild.queue").gauge().value());
+        release.countDown();
+        scheduler.shutdown(Duration.ofSeconds(5));
+        assertEquals(1, blogMax.get());
+        assertFalse(scheduler.isPending("cache:blog:4"));
+        assertEquals(1, meterRegistry.get("cache.rebuild.rejected").tag("reason", "duplicate").counter().count());
+    }
+
+    @Test
+    public void rejectsWhenQueueFullAndAfterShutdown() {
+        RebuildScheduler scheduler = new RebuildScheduler(1, 2, 1, Collections.emptyMap(), meterRegistry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger done = new AtomicInteger();
+        // 1个执行、2个排队，第4个拒绝
+        for (int i = 0; i < 3; i++) {
+            assertTrue(scheduler.submit("cache:shop:", key("cache:shop:", i), () -> {
+                await(release);
+                done.incrementAndGet();
+            }));
+        }
+        assertFalse(scheduler.submit("cache:shop:", key("cache:shop:", 3), done::incrementAndGet));
+        assertEquals(1, meterRegistry.get("cache.rebuild.rejected").tag("reason", "queue").counter().count());
+        // 关闭时排队的也执行完
+        release.countDown();
+        scheduler.shutdown(Duration.ofSeconds(5));
+        assertEquals(3, done.get());
+        assertFalse(scheduler.submit("cache:shop:", key("cache:shop:", 4), done::incrementAndGet));
+        assertEquals(1, meterRegistry.get("cache.rebuild.rejected").tag("reason", "shutdown").counter().count());
+    }
+
+    private static List<String> key(String keyPrefix, int id) {
+        return Collections.singletonList(keyPrefix + id);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
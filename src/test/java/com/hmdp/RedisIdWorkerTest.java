@@ -0,0 +1,109 @@
+package com.hmdp;
+
+import com.hmdp.config.IdWorkerProperties;
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 号段模式和逐个 INCR 对比吞吐量，并校验并发下id不重复、低32位的序列号和 Redis 计数器一致。只需要连 Redis
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.id.segment.enabled=true"})
+public class RedisIdWorkerTest {
+    // 临时业务前缀，测完删掉计数器
+    private static final String SEGMENT_PREFIX = "test:segment";
+    private static final String INCR_PREFIX = "test:incr";
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 20_000;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        idWorkerProperties.getSegment().setEnabled(true);
+        stringRedisTemplate.delete(key(SEGMENT_PREFIX));
+        stringRedisTemplate.delete(key(INCR_PREFIX));
+    }
+
+    @Test
+    public void segmentVersusIncr() throws InterruptedException {
+        int total = THREADS * IDS_PER_THREAD;
+        int step = idWorkerProperties.getSegment().getStep();
+
+        // 1.号段模式：id不重复，Redis 只访问了 total / step 次左右
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        long costMs = run(SEGMENT_PREFIX, ids);
+        System.out.printf("segment: ids=%d cost=%dms throughput=%d ids/s%n", total, costMs, total * 1000L / costMs);
+        assertEquals(total, ids.size());
+        long reserved = Long.parseLong(stringRedisTemplate.opsForValue().get(key(SEGMENT_PREFIX)));
+        // 用完的号段加上正在用的、预取的，最多多出两段
+        assertTrue(reserved >= total && reserved <= total + 2L * step, "reserved=" + reserved);
+        // 低32位就是 Redis 计数器分出去的序列号
+        long maxCount = ids.stream().mapToLong(id -> id & 0xFFFFFFFFL).max().getAsLong();
+        assertTrue(maxCount <= reserved);
+
+        // 2.逐个 INCR
+        idWorkerProperties.getSegment().setEnabled(false);
+        Set<Long> incrIds = ConcurrentHashMap.newKeySet();
+        costMs = run(INCR_PREFIX, incrIds);
+        System.out.printf("incr:    ids=%d cost=%dms throughput=%d ids/s%n", total, costMs, total * 1000L / costMs);
+        assertEquals(total, incrIds.size());
+        assertEquals(String.valueOf(total), stringRedisTemplate.opsForValue().get(key(INCR_PREFIX)));
+    }
+
+    @Test
+    public void mixedModesDoNotCollide() {
+        // 号段模式和逐个 INCR 共用同一个计数器，比如滚动发布时新老节点同时在分配
+        Set<Long> counts = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 5000; i++) {
+            idWorkerProperties.getSegment().setEnabled(i % 2 == 0);
+            long id = redisIdWorker.nextId(SEGMENT_PREFIX);
+            assertTrue(counts.add(id & 0xFFFFFFFFL));
+        }
+    }
+
+    private long run(String keyPrefix, Set<Long> ids) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        long begin = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                try {
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        ids.add(redisIdWorker.nextId(keyPrefix));
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        pool.shutdown();
+        return Math.max((System.nanoTime() - begin) / 1_000_000, 1);
+    }
+
+    private static String key(String keyPrefix) {
+        return "icr:" + keyPrefix + ":" + LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+    }
+}
@@ -3,6 +3,7 @@ package com.hmdp;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
@@ -26,6 +27,9 @@ public class SaveShop2RedisTest {
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheWarmer cacheWarmer;
+
     @Test
     public void testSaveShop_1(){
         shopService.saveShop2Redis(1L, 10L); // 为了方便测试只写了10s
@@ -39,12 +43,12 @@ public class SaveShop2RedisTest {
         cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + 2L, shop, 10L, TimeUnit.SECONDS);
     }
 
-    // 方便以后测试，我们写个for循环把所有缓存信息都添加进去，逻辑过期时间随便设置下，按照现在quaryById的逻辑都会重建缓存的
+    // 方便以后测试，把所有店铺缓存都添加进去。预热是异步的，等它结束
     @Test
-    public void testSaveShop_all(){
-        for (int i = 1; i < 15; i++) {
-            Shop shop = shopService.getById((long) i);
-            cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + (long) i, shop, 10L, TimeUnit.SECONDS);
+    public void testSaveShop_all() throws InterruptedException {
+        cacheWarmer.warmUp(CACHE_SHOP_KEY);
+        while (cacheWarmer.progress().stream().anyMatch(p -> "running".equals(p.getStatus()))) {
+            Thread.sleep(100);
         }
     }
 }
@@ -0,0 +1,103 @@
+package com.hmdp;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillStockManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKET_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀准入控制：令牌桶按剩余库存放行。只需要连 Redis，测完删掉临时券的库存key
+ */
+@SpringBootTest(properties = "hmdp.seckill.order.consumer-enabled=false")
+public class SeckillAdmissionTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long VOUCHER_ID = 9_000_000_301L;
+    private static final long GLOBAL_VOUCHER_ID = 9_000_000_302L;
+    private static final long EMPTY_VOUCHER_ID = 9_000_000_303L;
+    private static final int STOCK = 10;
+    private static final int REQUESTS = 1000;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        for (long voucherId : new long[]{VOUCHER_ID, GLOBAL_VOUCHER_ID, EMPTY_VOUCHER_ID}) {
+            stringRedisTemplate.delete(SECKILL_SHARDS_KEY + voucherId);
+            stringRedisTemplate.delete(SeckillStockManager.stockKey(voucherId, -1));
+            stringRedisTemplate.delete(SECKILL_BUCKET_KEY + voucherId);
+        }
+    }
+
+    @Test
+    public void throttleByRemainingStock() {
+        seckillStockManager.initStock(VOUCHER_ID, STOCK);
+        long begin = System.nanoTime();
+        int admitted = admit(VOUCHER_ID);
+        System.out.printf("local bucket: admitted=%d of %d%n", admitted, REQUESTS);
+        assertWithinBucket(admitted, begin);
+    }
+
+    @Test
+    public void globalBucket() {
+        seckillStockManager.initStock(GLOBAL_VOUCHER_ID, STOCK);
+        seckillProperties.getAdmission().setGlobalEnabled(true);
+        try {
+            long begin = System.nanoTime();
+            int admitted = admit(GLOBAL_VOUCHER_ID);
+            System.out.printf("global bucket: admitted=%d of %d%n", admitted, REQUESTS);
+            assertWithinBucket(admitted, begin);
+            // 全局桶里的令牌也用掉了
+            double tokens = Double.parseDouble((String) stringRedisTemplate.opsForHash().get(SECKILL_BUCKET_KEY + GLOBAL_VOUCHER_ID, "tokens"));
+            assertTrue(tokens < 1);
+        } finally {
+            seckillProperties.getAdmission().setGlobalEnabled(false);
+        }
+    }
+
+    @Test
+    public void minRateWhenEmpty() {
+        seckillStockManager.initStock(EMPTY_VOUCHER_ID, 0);
+        // 库存为0时按最低速率放行，让少量请求去做准确的售罄判断
+        int admitted = admit(EMPTY_VOUCHER_ID);
+        double minRate = seckillProperties.getAdmission().getMinRate();
+        assertTrue(admitted >= 1 && admitted < minRate * 2);
+    }
+
+    // 瞬间涌入的请求只放行桶的容量，再加上这段时间按速率补充的令牌
+    private void assertWithinBucket(int admitted, long beginNanos) {
+        double rate = STOCK * seckillProperties.getAdmission().getStockFactor();
+        double capacity = rate * seckillProperties.getAdmission().getBurstSeconds();
+        double seconds = (System.nanoTime() - beginNanos) / 1e9;
+        assertTrue(admitted >= capacity && admitted <= capacity + rate * seconds + 1,
+                "admitted=" + admitted + " seconds=" + seconds);
+    }
+
+    private int admit(long voucherId) {
+        int admitted = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (seckillAdmission.admit(voucherId) == null) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+}
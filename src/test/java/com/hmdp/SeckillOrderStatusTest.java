@@ -0,0 +1,130 @@
+package com.hmdp;
+
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单状态查询和长轮询，只读写 Redis，不需要连 MySQL
+ */
+@SpringBootTest(properties = "hmdp.seckill.order.consumer-enabled=false")
+public class SeckillOrderStatusTest {
+    private static final long ORDER_ID = 9_000_000_401L;
+    private static final long VOUCHER_ID = 9_000_000_401L;
+    private static final long USER_ID = 9_000_000_401L;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        UserDTO user = new UserDTO();
+        user.setId(USER_ID);
+        UserHolder.saveUser(user);
+        // 模拟下单脚本写入的排队状态
+        stringRedisTemplate.opsForHash().put(SECKILL_ORDER_STATUS_KEY + ORDER_ID, "status", SeckillOrderStatus.QUEUED);
+        stringRedisTemplate.opsForHash().put(SECKILL_ORDER_STATUS_KEY + ORDER_ID, "userId", String.valueOf(USER_ID));
+        stringRedisTemplate.opsForHash().put(SECKILL_ORDER_STATUS_KEY + ORDER_ID, "voucherId", String.valueOf(VOUCHER_ID));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        UserHolder.removeUser();
+        stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + ORDER_ID);
+    }
+
+    @Test
+    public void queryOwnOrderOnly() {
+        assertEquals(SeckillOrderStatus.QUEUED, statusOf(voucherOrderService.queryOrderStatus(ORDER_ID)));
+        // 别人的订单查不到
+        UserDTO other = new UserDTO();
+        other.setId(USER_ID + 1);
+        UserHolder.saveUser(other);
+        assertFalse(voucherOrderService.queryOrderStatus(ORDER_ID).getSuccess());
+    }
+
+    @Test
+    public void longPollWakesUpOnStatusChange() throws InterruptedException {
+        DeferredResult<Result> deferred = voucherOrderService.awaitOrderStatus(ORDER_ID, 10L);
+        // 还在排队，请求挂起
+        assertFalse(deferred.hasResult());
+
+        VoucherOrder order = new VoucherOrder().setId(ORDER_ID).setUserId(USER_ID).setVoucherId(VOUCHER_ID);
+        seckillOrderStatus.markCreated(Collections.singletonList(order));
+        // 发布订阅的通知是异步的，最多等2秒
+        for (int i = 0; i < 20 && !deferred.hasResult(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(deferred.hasResult());
+        assertEquals(SeckillOrderStatus.CREATED, statusOf((Result) deferred.getResult()));
+        assertTrue(stringRedisTemplate.getExpire(SECKILL_ORDER_STATUS_KEY + ORDER_ID) > 0);
+    }
+
+    @Test
+    public void oneNotificationWakesWholeBatch() throws InterruptedException {
+        long otherOrderId = ORDER_ID + 1;
+        CountDownLatch latch = new CountDownLatch(2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Runnable waiter = () -> {
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        };
+        seckillOrderStatus.addWaiter(ORDER_ID, waiter);
+        seckillOrderStatus.addWaiter(otherOrderId, waiter);
+        try {
+            // 一批两个订单只发一条通知，两个等待者都被唤醒，在监听线程池里执行
+            VoucherOrder order = new VoucherOrder().setId(ORDER_ID).setUserId(USER_ID).setVoucherId(VOUCHER_ID);
+            VoucherOrder other = new VoucherOrder().setId(otherOrderId).setUserId(USER_ID).setVoucherId(VOUCHER_ID);
+            seckillOrderStatus.markCreated(Arrays.asList(order, other));
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertTrue(threads.stream().allMatch(name -> name.startsWith("redis-listener-")));
+        } finally {
+            stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + otherOrderId);
+        }
+    }
+
+    @Test
+    public void failedWithReason() {
+        VoucherOrder order = new VoucherOrder().setId(ORDER_ID).setUserId(USER_ID).setVoucherId(VOUCHER_ID);
+        seckillOrderStatus.markFailed(order, "库存不足");
+        // 已经是最终状态，长轮询立即返回
+        DeferredResult<Result> deferred = voucherOrderService.awaitOrderStatus(ORDER_ID, 10L);
+        assertTrue(deferred.hasResult());
+        OrderStatusDTO dto = (OrderStatusDTO) ((Result) deferred.getResult()).getData();
+        assertEquals(SeckillOrderStatus.FAILED, dto.getStatus());
+        assertEquals("库存不足", dto.getReason());
+    }
+
+    private static String statusOf(Result result) {
+        assertTrue(result.getSuccess());
+        return ((OrderStatusDTO) result.getData()).getStatus();
+    }
+}
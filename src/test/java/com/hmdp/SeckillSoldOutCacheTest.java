@@ -0,0 +1,128 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.impl.VoucherOrderConsumer;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.AopTestUtils;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 售罄标记：卖完后本节点直接拒绝、不再访问 Redis，补充库存后清除标记、可以继续下单。
+ * 只需要连 Redis；关闭本节点的订单消费，测完删掉临时券的库存key和写入队列的消息
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false"})
+public class SeckillSoldOutCacheTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long VOUCHER_ID = 9_000_000_401L;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillWindowCache seckillWindowCache;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private IdWorker idWorker;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final long beginMillis = System.currentTimeMillis();
+
+    @AfterEach
+    public void tearDown() {
+        UserHolder.removeUser();
+        seckillSoldOutCache.clearSoldOut(VOUCHER_ID);
+        stringRedisTemplate.delete(SECKILL_SHARDS_KEY + VOUCHER_ID);
+        stringRedisTemplate.delete(SeckillStockManager.stockKey(VOUCHER_ID, -1));
+        stringRedisTemplate.delete(SeckillStockManager.orderKey(VOUCHER_ID, -1));
+        // 删掉写入订单队列的消息，连同下单脚本写入的订单状态
+        String streamKey = VoucherOrderConsumer.streamKey((int) (VOUCHER_ID % seckillProperties.getOrder().getPartitions()));
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.closed(beginMillis + "-0", "+"));
+        if (records == null) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> mine = records.stream()
+                .filter(r -> String.valueOf(VOUCHER_ID).equals(r.getValue().get("voucherId"))).collect(Collectors.toList());
+        mine.forEach(r -> stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + r.getValue().get("id")));
+        RecordId[] ids = mine.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        if (ids.length > 0) {
+            stringRedisTemplate.opsForStream().delete(streamKey, ids);
+        }
+    }
+
+    @Test
+    public void soldOutRejectsLocallyUntilReplenished() {
+        seckillStockManager.initStock(VOUCHER_ID, 1);
+        seckillWindowCache.put(VOUCHER_ID, beginMillis - 60_000, beginMillis + 3_600_000);
+        // 1.第一个用户买走唯一的库存，第二个用户报库存不足，本节点标记售罄
+        assertTrue(seckill(1L).getSuccess());
+        assertFalse(seckill(2L).getSuccess());
+        assertTrue(seckillSoldOutCache.isSoldOut(VOUCHER_ID));
+
+        // 2.标记售罄后直接拒绝，不分配订单id、不执行下单脚本
+        Object target = AopTestUtils.getTargetObject(voucherOrderService);
+        SeckillStockManager stockSpy = spy(seckillStockManager);
+        IdWorker idSpy = spy(idWorker);
+        ReflectUtil.setFieldValue(target, "seckillStockManager", stockSpy);
+        ReflectUtil.setFieldValue(target, "idWorker", idSpy);
+        try {
+            Result rejected = seckill(3L);
+            assertFalse(rejected.getSuccess());
+            assertEquals("库存不足", rejected.getErrorMsg());
+            verify(stockSpy, never()).seckill(anyLong(), anyLong(), anyLong());
+            verify(idSpy, never()).nextId(anyString());
+        } finally {
+            ReflectUtil.setFieldValue(target, "seckillStockManager", seckillStockManager);
+            ReflectUtil.setFieldValue(target, "idWorker", idWorker);
+        }
+
+        // 3.补充库存：事务提交后加 Redis 库存、清除售罄标记
+        seckillStockManager.addStock(VOUCHER_ID, 1);
+        seckillSoldOutCache.clearSoldOut(VOUCHER_ID);
+        assertFalse(seckillSoldOutCache.isSoldOut(VOUCHER_ID));
+        assertTrue(seckill(3L).getSuccess());
+        assertEquals(0, seckillStockManager.remainingStock(VOUCHER_ID));
+    }
+
+    private Result seckill(Long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+        return voucherOrderService.seckillVoucher(VOUCHER_ID);
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp;
+
+import cn.hutool.core.util.IdUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.service.impl.VoucherOrderConsumer;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillStockManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 开启库存租约后并发抢购，校验不超卖、没卖完的库存能还回 Redis。
+ * 只需要连 Redis；关闭本节点的订单消费，测完删掉临时券的库存key和写入队列的消息
+ */
+@SpringBootTest(properties = {"hmdp.seckill.lease.enabled=true", "hmdp.seckill.order.consumer-enabled=false"})
+public class SeckillStockLeaseTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long VOUCHER_ID = 9_000_000_201L;
+    private static final int STOCK = 1000;
+    private static final int THREADS = 32;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final long beginMillis = System.currentTimeMillis();
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(SECKILL_SHARDS_KEY + VOUCHER_ID);
+        stringRedisTemplate.delete(SeckillStockManager.stockKey(VOUCHER_ID, -1));
+        stringRedisTemplate.delete(SeckillStockManager.orderKey(VOUCHER_ID, -1));
+        // 删掉写入订单队列的消息
+        String streamKey = VoucherOrderConsumer.streamKey((int) (VOUCHER_ID % seckillProperties.getOrder().getPartitions()));
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.closed(beginMillis + "-0", "+"));
+        if (records == null) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> mine = records.stream()
+                .filter(r -> String.valueOf(VOUCHER_ID).equals(r.getValue().get("voucherId"))).collect(Collectors.toList());
+        // 连同下单脚本写入的订单状态
+        mine.forEach(r -> stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + r.getValue().get("id")));
+        RecordId[] ids = mine.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        if (ids.length > 0) {
+            stringRedisTemplate.opsForStream().delete(streamKey, ids);
+        }
+    }
+
+    @Test
+    public void noOversellAndReturnUnused() throws InterruptedException {
+        seckillStockManager.initStock(VOUCHER_ID, STOCK);
+        double refillsBefore = meterRegistry.get("seckill.stock.lease.refill").counters().stream()
+                .mapToDouble(c -> c.count()).sum();
+
+        // 1.用户数多于库存：正好卖完，不超卖
+        int ok = run(1, STOCK * 2);
+        assertEquals(STOCK, ok);
+        assertEquals(0, stock());
+        assertTrue(meterRegistry.get("seckill.stock.lease.hit").counter().count() > 0);
+        double refills = meterRegistry.get("seckill.stock.lease.refill").counters().stream()
+                .mapToDouble(c -> c.count()).sum() - refillsBefore;
+        // 每次最多租 chunk 个，至少要续租 STOCK / chunk 次，但远少于请求数
+        assertTrue(refills >= STOCK / seckillProperties.getLease().getChunk() && refills < STOCK);
+
+        // 2.补充库存后只卖掉一部分，剩下的租约归还后 Redis 库存等于没卖掉的数量
+        seckillStockManager.addStock(VOUCHER_ID, STOCK);
+        ok = run(STOCK * 2 + 1, STOCK / 2);
+        assertEquals(STOCK / 2, ok);
+        seckillStockLease.returnLease(VOUCHER_ID);
+        assertEquals(STOCK - STOCK / 2, stock());
+    }
+
+    // 用户 firstUserId 开始的 users 个用户并发各抢一次，返回下单成功数
+    private int run(long firstUserId, int users) throws InterruptedException {
+        AtomicInteger ok = new AtomicInteger();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < users) {
+                        int r = seckillStockManager.seckill(VOUCHER_ID, firstUserId + i, IdUtil.getSnowflake().nextId());
+                        if (r == SeckillStockManager.OK) {
+                            ok.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        pool.shutdown();
+        return ok.get();
+    }
+
+    private long stock() {
+        return Long.parseLong(stringRedisTemplate.opsForValue().get(SeckillStockManager.stockKey(VOUCHER_ID, -1)));
+    }
+}
@@ -0,0 +1,190 @@
+package com.hmdp;
+
+import cn.hutool.core.util.IdUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.service.impl.VoucherOrderConsumer;
+import com.hmdp.utils.SeckillStockManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对比单个库存key和分片库存key下秒杀脚本的吞吐量，同时校验不超卖、一人一单。
+ * 只需要连 Redis；关闭本节点的订单消费，测完删掉临时券的库存key和写入队列的消息
+ */
+@SpringBootTest(properties = "hmdp.seckill.order.consumer-enabled=false")
+public class SeckillStockShardLoadTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long VOUCHER_ID = 9_000_000_101L;
+    private static final int USERS = 10_000;
+    // 库存比用户数少，压测后段会走到跨分片借库存和售罄
+    private static final int STOCK = 7_500;
+    private static final int THREADS = 64;
+    private static final int[] SHARDS = {1, 4, 8, 16};
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final List<Long> voucherIds = new ArrayList<>();
+
+    private long beginMillis;
+
+    @AfterEach
+    public void tearDown() {
+        int partitions = seckillProperties.getOrder().getPartitions();
+        for (Long voucherId : voucherIds) {
+            int shards = seckillStockManager.shardsOf(voucherId);
+            stringRedisTemplate.delete(SECKILL_SHARDS_KEY + voucherId);
+            for (int i = firstShard(shards); i < lastShard(shards); i++) {
+                stringRedisTemplate.delete(SeckillStockManager.stockKey(voucherId, i));
+                stringRedisTemplate.delete(SeckillStockManager.orderKey(voucherId, i));
+                stringRedisTemplate.delete(SeckillStockManager.windowKey(voucherId, i));
+            }
+            // 删掉压测写入订单队列的消息
+            String streamKey = VoucherOrderConsumer.streamKey((int) (voucherId % partitions));
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(streamKey, Range.closed(beginMillis + "-0", "+"));
+            if (records == null) {
+                continue;
+            }
+            List<MapRecord<String, Object, Object>> mine = records.stream()
+                    .filter(r -> voucherId.toString().equals(r.getValue().get("voucherId"))).collect(Collectors.toList());
+            // 连同下单脚本写入的订单状态
+            mine.forEach(r -> stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + r.getValue().get("id")));
+            RecordId[] ids = mine.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            if (ids.length > 0) {
+                stringRedisTemplate.opsForStream().delete(streamKey, ids);
+            }
+        }
+    }
+
+    @Test
+    public void compareShards() throws InterruptedException {
+        beginMillis = System.currentTimeMillis();
+        int original = seckillProperties.getStockShards();
+        try {
+            for (int k = 0; k < SHARDS.length; k++) {
+                long voucherId = VOUCHER_ID + k;
+                voucherIds.add(voucherId);
+                seckillProperties.setStockShards(SHARDS[k]);
+                seckillStockManager.initStock(voucherId, STOCK);
+                run(voucherId, SHARDS[k]);
+            }
+        } finally {
+            seckillProperties.setStockShards(original);
+        }
+    }
+
+    @Test
+    public void rejectOutsideWindow() {
+        beginMillis = System.currentTimeMillis();
+        long voucherId = VOUCHER_ID + SHARDS.length;
+        voucherIds.add(voucherId);
+        int original = seckillProperties.getStockShards();
+        try {
+            // 4个分片各1个库存，用户的本分片没库存时要去其他分片借
+            seckillProperties.setStockShards(4);
+            seckillStockManager.initStock(voucherId, 4);
+        } finally {
+            seckillProperties.setStockShards(original);
+        }
+        long now = System.currentTimeMillis();
+        // 1.尚未开始
+        seckillStockManager.saveWindow(voucherId, now + 60_000, now + 120_000);
+        assertEquals(SeckillStockManager.NOT_STARTED, seckillStockManager.seckill(voucherId, 1L, 1L));
+        // 2.已经结束
+        seckillStockManager.saveWindow(voucherId, now - 120_000, now - 60_000);
+        assertEquals(SeckillStockManager.ENDED, seckillStockManager.seckill(voucherId, 1L, 2L));
+        // 3.进行中，用户1、5、9、13的本分片都是1号分片，后三个要借其他分片的库存
+        seckillStockManager.saveWindow(voucherId, now - 60_000, now + 60_000);
+        for (long userId = 1; userId <= 13; userId += 4) {
+            assertEquals(SeckillStockManager.OK, seckillStockManager.seckill(voucherId, userId, userId));
+        }
+        assertEquals(SeckillStockManager.SOLD_OUT, seckillStockManager.seckill(voucherId, 17L, 17L));
+        // 4.被拒绝的请求都没有扣库存
+        long remaining = 0;
+        for (int i = 0; i < 4; i++) {
+            remaining += Long.parseLong(stringRedisTemplate.opsForValue().get(SeckillStockManager.stockKey(voucherId, i)));
+        }
+        assertEquals(0, remaining);
+    }
+
+    private void run(long voucherId, int shards) throws InterruptedException {
+        AtomicInteger ok = new AtomicInteger();
+        AtomicInteger soldOut = new AtomicInteger();
+        AtomicInteger duplicate = new AtomicInteger();
+        // 每个用户连着请求两次，两次请求并发执行，只能有一次下单成功
+        int requests = USERS * 2;
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        long begin = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests) {
+                        long userId = i / 2 + 1;
+                        int r = seckillStockManager.seckill(voucherId, userId, IdUtil.getSnowflake().nextId());
+                        (r == SeckillStockManager.OK ? ok : r == SeckillStockManager.SOLD_OUT ? soldOut : duplicate).incrementAndGet();
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long costMs = Math.max((System.nanoTime() - begin) / 1_000_000, 1);
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.SECONDS);
+
+        // 剩余库存、已下单用户数合计
+        long remaining = 0;
+        long buyers = 0;
+        for (int i = firstShard(shards); i < lastShard(shards); i++) {
+            remaining += Long.parseLong(stringRedisTemplate.opsForValue().get(SeckillStockManager.stockKey(voucherId, i)));
+            buyers += stringRedisTemplate.opsForSet().size(SeckillStockManager.orderKey(voucherId, i));
+        }
+        System.out.printf("shards=%-3d requests=%d ok=%d soldOut=%d duplicate=%d cost=%dms throughput=%d req/s%n",
+                shards, requests, ok.get(), soldOut.get(), duplicate.get(), costMs, requests * 1000L / costMs);
+        // 不超卖、不少卖：库存全部卖完，且卖出数加剩余等于初始库存
+        assertEquals(STOCK, ok.get());
+        assertEquals(0, remaining);
+        // 一人一单：每个下单成功的用户只记录了一次
+        assertEquals(STOCK, buyers);
+    }
+
+    // 不分片时只有一个 -1 号"分片"，见 SeckillStockManager.stockKey
+    private static int firstShard(int shards) {
+        return shards == 1 ? -1 : 0;
+    }
+
+    private static int lastShard(int shards) {
+        return shards == 1 ? 0 : shards;
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillWindowCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 本地时间窗口：Redis 里没有窗口的券缓存"没有窗口"标记，有效期内不再读 Redis，建券写入窗口后按窗口判断。不启动 Spring 容器
+ */
+public class SeckillWindowCacheTest {
+    private static final long VOUCHER_ID = 9_000_000_701L;
+
+    private final SeckillWindowCache cache = new SeckillWindowCache();
+
+    private HashOperations<String, Object, Object> hashOps;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        hashOps = mock(HashOperations.class);
+        when(redisTemplate.opsForHash()).thenReturn(hashOps);
+        when(hashOps.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList(null, null));
+        SeckillStockManager stockManager = mock(SeckillStockManager.class);
+        when(stockManager.shardsOf(anyLong())).thenReturn(1);
+        SeckillProperties properties = new SeckillProperties();
+        properties.setWindowMissTtl(Duration.ofMillis(100));
+        ReflectUtil.setFieldValue(cache, "stringRedisTemplate", redisTemplate);
+        ReflectUtil.setFieldValue(cache, "seckillStockManager", stockManager);
+        ReflectUtil.setFieldValue(cache, "seckillProperties", properties);
+    }
+
+    @Test
+    public void missingWindowIsCachedBriefly() throws InterruptedException {
+        // 1.没有窗口，放行，有效期内只读一次 Redis
+        assertEquals(SeckillStockManager.OK, cache.check(VOUCHER_ID));
+        assertEquals(SeckillStockManager.OK, cache.check(VOUCHER_ID));
+        verify(hashOps, times(1)).multiGet(anyString(), anyCollection());
+        // 没有窗口的标记不算已结束
+        assertTrue(cache.endedBefore(0).isEmpty());
+
+        // 2.过期后重新读 Redis，定时清理会清掉过期的标记
+        Thread.sleep(150);
+        assertEquals(SeckillStockManager.OK, cache.check(VOUCHER_ID));
+        verify(hashOps, times(2)).multiGet(anyString(), anyCollection());
+        Thread.sleep(150);
+        cache.evictExpired();
+        assertTrue(((Map<?, ?>) ReflectUtil.getFieldValue(cache, "windows")).isEmpty());
+
+        // 3.写入窗口后按窗口判断，不再过期
+        long now = System.currentTimeMillis();
+        cache.put(VOUCHER_ID, now + 60_000, now + 120_000);
+        Thread.sleep(150);
+        assertEquals(SeckillStockManager.NOT_STARTED, cache.check(VOUCHER_ID));
+        cache.evictExpired();
+        assertEquals(SeckillStockManager.NOT_STARTED, cache.check(VOUCHER_ID));
+        verify(hashOps, times(2)).multiGet(anyString(), anyCollection());
+    }
+}
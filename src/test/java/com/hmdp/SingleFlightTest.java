@@ -0,0 +1,135 @@
+package com.hmdp;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.SingleFlight;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 请求合并：同一个key的并发查询只查一次数据库，异常和超时传给等待的线程。不启动 Spring 容器，Redis 用 Mockito 模拟
+ */
+public class SingleFlightTest {
+    private static final int THREADS = 16;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void passThroughLoadsOncePerBurst() throws Exception {
+        // 1.Redis 里没有缓存
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        RedisTemplate<String, byte[]> bytesRedisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, byte[]> ops = mock(ValueOperations.class);
+        when(bytesRedisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.get(anyString())).thenReturn(null);
+        CacheClient cacheClient = new CacheClient();
+        ReflectUtil.setFieldValue(cacheClient, "stringRedisTemplate", stringRedisTemplate);
+        ReflectUtil.setFieldValue(cacheClient, "bytesRedisTemplate", bytesRedisTemplate);
+        ReflectUtil.setFieldValue(cacheClient, "cacheCodec", new JsonCacheCodec());
+        ReflectUtil.setFieldValue(cacheClient, "cacheProperties", new CacheProperties());
+        ReflectUtil.setFieldValue(cacheClient, "localCache", CacheUtil.newLRUCache(16));
+        ReflectUtil.setFieldValue(cacheClient, "metrics", new CacheMetrics(new SimpleMeterRegistry()));
+
+        // 2.所有线程同时查同一个店铺，数据库查询慢一点，保证都赶上同一次
+        AtomicInteger dbCalls = new AtomicInteger();
+        List<Shop> results = burst(() -> cacheClient.queryWithPassThrough("cache:shop:", 1L, Shop.class, id -> {
+            dbCalls.incrementAndGet();
+            sleep(200);
+            Shop shop = new Shop();
+            shop.setId(id);
+            return shop;
+        }, 30L, TimeUnit.MINUTES));
+
+        assertEquals(1, dbCalls.get());
+        assertTrue(results.stream().allMatch(shop -> shop == results.get(0)));
+        verify(ops, times(1)).set(eq("cache:shop:1"), any(byte[].class), eq(30L), eq(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void errorPropagatesToWaiters() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        IllegalArgumentException error = new IllegalArgumentException("db down");
+        List<Object> results = burst(() -> {
+            try {
+                return singleFlight.execute("k", () -> {
+                    calls.incrementAndGet();
+                    sleep(200);
+                    throw error;
+                }, Duration.ofSeconds(5));
+            } catch (IllegalArgumentException e) {
+                return e;
+            }
+        });
+        assertEquals(1, calls.get());
+        assertTrue(results.stream().allMatch(e -> e == error));
+        assertFalse(singleFlight.isInFlight("k"));
+    }
+
+    @Test
+    public void waiterTimesOut() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<String> leader = pool.submit(() -> singleFlight.execute("k", () -> {
+            started.countDown();
+            sleep(500);
+            return "v";
+        }, Duration.ofSeconds(5)));
+        started.await();
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("k", () -> "other", Duration.ofMillis(50)));
+        assertEquals("v", leader.get());
+        // 加载完成后不缓存结果，再调用重新加载
+        assertEquals("other", singleFlight.execute("k", () -> "other", Duration.ofMillis(50)));
+        pool.shutdown();
+    }
+
+    private static <T> List<T> burst(Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
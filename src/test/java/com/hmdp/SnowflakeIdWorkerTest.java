@@ -0,0 +1,137 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * snowflake 方式生成id：机器号租约、并发不重复、批量生成、时钟回拨、夏令时切换。只在启动时连 Redis 租机器号
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.id.mode=snowflake"})
+public class SnowflakeIdWorkerTest {
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 50_000;
+
+    @Resource
+    private IdWorker idWorker;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void leaseWorkerId() {
+        SnowflakeIdWorker worker = (SnowflakeIdWorker) idWorker;
+        long workerId = worker.getWorkerId();
+        assertTrue(workerId >= 0 && workerId < SnowflakeIdWorker.MAX_WORKERS);
+        String key = ID_WORKER_KEY + workerId;
+        assertNotNull(stringRedisTemplate.opsForValue().get(key));
+        assertTrue(stringRedisTemplate.getExpire(key) > 0);
+    }
+
+    @Test
+    public void uniqueAndTimeOrdered() throws InterruptedException {
+        long before = secondsSinceBegin();
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                try {
+                    long last = 0;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        long id = idWorker.nextId("order");
+                        // 同一个线程里拿到的id递增
+                        assertTrue(id > last);
+                        last = id;
+                        ids.add(id);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        pool.shutdown();
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        // 高32位和 RedisIdWorker 一样是秒级时间戳
+        long after = secondsSinceBegin();
+        assertTrue(ids.stream().allMatch(id -> (id >>> 32) >= before && (id >>> 32) <= after));
+    }
+
+    @Test
+    public void nextIdsSpansMillis() {
+        // 一毫秒最多 8192 个，两万个至少跨三毫秒
+        long[] ids = idWorker.nextIds("order", 20_000);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i] > ids[i - 1]);
+        }
+        assertTrue(idWorker.nextId("order") > ids[ids.length - 1]);
+    }
+
+    @Test
+    public void clockBackward() {
+        AtomicLong state = (AtomicLong) ReflectUtil.getFieldValue(idWorker, "state");
+        // 1.回拨5ms以内：等时钟追上来
+        double waited = meterRegistry.get("id.snowflake.clock.backward").tag("result", "waited").counter().count();
+        long last = idWorker.nextId("order");
+        state.set(state.get() + (5L << 13));
+        assertTrue(idWorker.nextId("order") > last);
+        assertTrue(meterRegistry.get("id.snowflake.clock.backward").tag("result", "waited").counter().count() > waited);
+        // 2.回拨太多：直接报错
+        long saved = state.get();
+        state.set(saved + (60_000L << 13));
+        try {
+            assertThrows(IllegalStateException.class, () -> idWorker.nextId("order"));
+        } finally {
+            state.set(saved);
+        }
+    }
+
+    @Test
+    public void daylightSavingTransitionIsNotClockBackward() {
+        ZoneId zone = ZoneId.of("America/New_York");
+        // 2026-11-01 夏令时结束，本地时间从 02:00 退回 01:00
+        ZoneOffsetTransition fallBack = zone.getRules().nextTransition(Instant.parse("2026-10-01T00:00:00Z"));
+        long at = fallBack.getInstant().toEpochMilli();
+        assertTrue(fallBack.isOverlap());
+        // 按当前偏移算，本地时间会倒退一小时
+        assertEquals(3_600_000L, (fallBack.getOffsetBefore().getTotalSeconds() - fallBack.getOffsetAfter().getTotalSeconds()) * 1000L);
+        // 标准偏移前后不变，组装id用的本地毫秒数跟着 UTC 连续递增
+        long before = at - 1 + SnowflakeIdWorker.standardOffsetMillis(zone, at - 1);
+        long after = at + SnowflakeIdWorker.standardOffsetMillis(zone, at);
+        assertEquals(1, after - before);
+        // 夏令时开始时同样不跳
+        ZoneOffsetTransition springForward = zone.getRules().nextTransition(fallBack.getInstant());
+        long start = springForward.getInstant().toEpochMilli();
+        assertEquals(SnowflakeIdWorker.standardOffsetMillis(zone, start - 1), SnowflakeIdWorker.standardOffsetMillis(zone, start));
+        // 没有夏令时的时区，标准偏移就是平时的偏移，和 RedisIdWorker 一致
+        assertEquals(8 * 3_600_000L, SnowflakeIdWorker.standardOffsetMillis(ZoneId.of("Asia/Shanghai"), at));
+    }
+
+    // 和 RedisIdWorker 一样按本地时间算，夏令时期间用标准时间
+    private static long secondsSinceBegin() {
+        long now = System.currentTimeMillis();
+        return (now + SnowflakeIdWorker.standardOffsetMillis(ZoneId.systemDefault(), now)) / 1000 - 1640995200L;
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对比逐条落库和批量落库的吞吐量（订单数/秒）。需要连本地 MySQL 和 Redis，
+ * 会临时插入一张库存很大的秒杀券和一批订单，测完删掉
+ */
+@SpringBootTest
+public class VoucherOrderBatchBenchmarkTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long VOUCHER_ID = 9_000_000_001L;
+    // 每种批次大小写入的订单数
+    private static final int ORDERS = 2000;
+    private static final int[] BATCH_SIZES = {1, 10, 50, 100, 200, 500};
+
+    @Resource
+    private VoucherOrderServiceImpl voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @BeforeEach
+    public void setUp() {
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(VOUCHER_ID);
+        voucher.setStock(ORDERS * BATCH_SIZES.length);
+        seckillVoucherService.save(voucher);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", VOUCHER_ID));
+        seckillVoucherService.removeById(VOUCHER_ID);
+    }
+
+    @Test
+    public void benchmarkBatchSize() {
+        long userId = 1;
+        for (int batchSize : BATCH_SIZES) {
+            // 先把订单都生成好，计时只算落库
+            List<VoucherOrder> orders = new ArrayList<>(ORDERS);
+            for (int i = 0; i < ORDERS; i++) {
+                orders.add(new VoucherOrder().setId(IdUtil.getSnowflake().nextId()).setUserId(userId++).setVoucherId(VOUCHER_ID));
+            }
+            long begin = System.nanoTime();
+            if (batchSize == 1) {
+                // 逐条：加锁、查重、扣库存、插入
+                orders.forEach(voucherOrderService::createVoucherOrderWithLock);
+            } else {
+                for (int i = 0; i < ORDERS; i += batchSize) {
+                    voucherOrderService.insertVoucherOrders(orders.subList(i, Math.min(i + batchSize, ORDERS)));
+                }
+            }
+            long costMs = Math.max((System.nanoTime() - begin) / 1_000_000, 1);
+            System.out.printf("batchSize=%-4d orders=%d cost=%dms throughput=%d orders/s%n",
+                    batchSize, ORDERS, costMs, ORDERS * 1000L / costMs);
+        }
+    }
+}
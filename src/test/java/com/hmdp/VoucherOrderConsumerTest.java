@@ -0,0 +1,227 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.impl.VoucherOrderConsumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LEGACY_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 订单消息队列消费：启动时自动建组、认领宕机节点遗留的消息、不认领本节点自己的消息、反复失败的消息转入死信队列、排空旧版本的单个队列。
+ * 只连 Redis，落库换成 mock；每个分区一个消费线程，定时认领的间隔调大，测试里手动触发。
+ * 其他测试缓存下来的 Spring 容器里可能也有消费者在读默认的几个分区，这里分区数调大，只用最后一个分区
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=true", "hmdp.seckill.order.consumer-name=test-node",
+        "hmdp.seckill.order.partitions=6", "hmdp.seckill.order.workers-per-partition=1",
+        "hmdp.seckill.order.claim-min-idle=100ms", "hmdp.seckill.order.claim-interval=1h",
+        "hmdp.seckill.order.idempotent-insert=false", "hmdp.seckill.order.max-deliveries=2",
+        "hmdp.seckill.journal.enabled=false"})
+public class VoucherOrderConsumerTest {
+    private static final String STREAM_KEY = VoucherOrderConsumer.streamKey(5);
+    private static final String OWN_CONSUMER = "test-node-5-0";
+    private static final String DEAD_CONSUMER = "dead-node-5-0";
+    private static final long VOUCHER_ID = 9_000_000_501L;
+
+    // 写入一条消息并立即被指定的消费者读走，放在一个脚本里，本节点阻塞读的消费者抢不到
+    private static final DefaultRedisScript<String> DELIVER_SCRIPT = new DefaultRedisScript<>(
+            "local id = redis.call('xadd', KEYS[1], '*', 'userId', ARGV[2], 'voucherId', ARGV[3], 'id', ARGV[4]) "
+                    + "redis.call('xreadgroup', 'GROUP', 'g1', ARGV[1], 'COUNT', '1', 'STREAMS', KEYS[1], '>') "
+                    + "return id", String.class);
+
+    @Resource
+    private VoucherOrderConsumer voucherOrderConsumer;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private IVoucherOrderService orderService;
+
+    private final List<String> recordIds = new ArrayList<>();
+
+    private final List<Long> orderIds = new ArrayList<>();
+
+    private final List<RecordId> deadLetters = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        orderService = mock(IVoucherOrderService.class);
+        when(orderService.createVoucherOrder(any())).thenReturn(Result.ok());
+        when(orderService.createVoucherOrders(anyList())).thenReturn(Collections.emptyList());
+        ReflectUtil.setFieldValue(voucherOrderConsumer, "voucherOrderService", orderService);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ReflectUtil.setFieldValue(voucherOrderConsumer, "voucherOrderService", voucherOrderService);
+        if (!recordIds.isEmpty()) {
+            RecordId[] ids = recordIds.stream().map(RecordId::of).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, VoucherOrderConsumer.GROUP, ids);
+            stringRedisTemplate.opsForStream().delete(STREAM_KEY, ids);
+        }
+        stringRedisTemplate.opsForStream().deleteConsumer(STREAM_KEY, Consumer.from(VoucherOrderConsumer.GROUP, DEAD_CONSUMER));
+        orderIds.forEach(id -> stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + id));
+        if (!deadLetters.isEmpty()) {
+            stringRedisTemplate.opsForStream().delete(SECKILL_ORDER_DLQ_KEY, deadLetters.toArray(new RecordId[0]));
+        }
+    }
+
+    @Test
+    public void groupCreatedOnStartup() {
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(STREAM_KEY);
+        assertTrue(groups.stream().anyMatch(g -> VoucherOrderConsumer.GROUP.equals(g.groupName())));
+    }
+
+    @Test
+    public void claimsFromDeadNodeButNotFromItself() throws InterruptedException {
+        // 1.本节点自己的消费者名下有一条未确认的消息，空闲超过认领时长也不认领
+        String own = deliver(OWN_CONSUMER, 9_000_000_511L);
+        Thread.sleep(300);
+        claimIdlePending();
+        PendingMessages ownPending = pending(own);
+        assertEquals(1, ownPending.size());
+        assertEquals(OWN_CONSUMER, ownPending.get(0).getConsumerName());
+        assertEquals(1, ownPending.get(0).getTotalDeliveryCount());
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, VoucherOrderConsumer.GROUP, own);
+
+        // 2.宕机节点名下的消息，空闲超过认领时长后认领给本节点，落库并确认
+        long orderId = 9_000_000_512L;
+        String dead = deliver(DEAD_CONSUMER, orderId);
+        Thread.sleep(300);
+        claimIdlePending();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!pending(dead).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(pending(dead).isEmpty());
+        verify(orderService).createVoucherOrder(argThat((VoucherOrder o) -> o.getId() == orderId));
+        verify(orderService, never()).createVoucherOrder(argThat((VoucherOrder o) -> o.getId() == 9_000_000_511L));
+    }
+
+    @Test
+    public void poisonMessageGoesToDeadLetterQueue() throws InterruptedException {
+        long orderId = 9_000_000_513L;
+        when(orderService.createVoucherOrder(argThat(o -> o != null && o.getId() == orderId)))
+                .thenThrow(new IllegalStateException("模拟消息有问题"));
+        // 1.正常写入队列，由本节点的消费者读取，第一次失败留在pending-list里，第二次达到上限转入死信队列
+        RecordId id = stringRedisTemplate.opsForStream().add(STREAM_KEY, order(orderId));
+        recordIds.add(id.getValue());
+        orderIds.add(orderId);
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<MapRecord<String, Object, Object>> letters = deadLetters(id);
+        while (letters.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            letters = deadLetters(id);
+        }
+        assertEquals(1, letters.size());
+        Map<Object, Object> letter = letters.get(0).getValue();
+        assertEquals(STREAM_KEY, letter.get("source"));
+        assertEquals("2", letter.get("deliveries"));
+        assertEquals(String.valueOf(orderId), letter.get("id"));
+        // 2.原消息已确认，先写死信队列再确认，所以要再等一下
+        while (!pending(id.getValue()).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(pending(id.getValue()).isEmpty());
+        verify(orderService, times(2)).createVoucherOrder(argThat((VoucherOrder o) -> o.getId() == orderId));
+    }
+
+    private List<MapRecord<String, Object, Object>> deadLetters(RecordId sourceId) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(SECKILL_ORDER_DLQ_KEY, Range.closed(sourceId.getValue(), "+"));
+        List<MapRecord<String, Object, Object>> mine = new ArrayList<>();
+        if (records != null) {
+            for (MapRecord<String, Object, Object> r : records) {
+                if (sourceId.getValue().equals(r.getValue().get("sourceId"))) {
+                    mine.add(r);
+                    if (!deadLetters.contains(r.getId())) {
+                        deadLetters.add(r.getId());
+                    }
+                }
+            }
+        }
+        return mine;
+    }
+
+    private static Map<String, String> order(long orderId) {
+        Map<String, String> body = new HashMap<>();
+        body.put("userId", "1");
+        body.put("voucherId", String.valueOf(VOUCHER_ID));
+        body.put("id", String.valueOf(orderId));
+        return body;
+    }
+
+    private void claimIdlePending() {
+        ReflectUtil.invoke(voucherOrderConsumer, "claimIdlePending");
+    }
+
+    private String deliver(String consumerName, long orderId) {
+        String id = stringRedisTemplate.execute(DELIVER_SCRIPT, Collections.singletonList(STREAM_KEY),
+                consumerName, "1", String.valueOf(VOUCHER_ID), String.valueOf(orderId));
+        recordIds.add(id);
+        orderIds.add(orderId);
+        return id;
+    }
+
+    @Test
+    public void drainsLegacyStream() throws InterruptedException {
+        stringRedisTemplate.delete(SECKILL_ORDER_LEGACY_STREAM_KEY);
+        long claimedId = 9_000_000_521L;
+        long undeliveredId = 9_000_000_522L;
+        orderIds.add(claimedId);
+        orderIds.add(undeliveredId);
+        try {
+            // 1.旧队列里一条被旧节点 c1 读走没确认，一条还没投递
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_LEGACY_STREAM_KEY, order(claimedId));
+            stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_LEGACY_STREAM_KEY, ReadOffset.from("0"), VoucherOrderConsumer.GROUP);
+            stringRedisTemplate.opsForStream().read(Consumer.from(VoucherOrderConsumer.GROUP, "c1"),
+                    StreamReadOptions.empty().count(1), StreamOffset.create(SECKILL_ORDER_LEGACY_STREAM_KEY, ReadOffset.lastConsumed()));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_LEGACY_STREAM_KEY, order(undeliveredId));
+            Thread.sleep(300);
+
+            // 2.排空旧队列：两条都落库，组里没有未确认的消息
+            ReflectUtil.invoke(voucherOrderConsumer, "drainLegacyStream");
+            verify(orderService).createVoucherOrder(argThat((VoucherOrder o) -> o.getId() == claimedId));
+            verify(orderService).createVoucherOrder(argThat((VoucherOrder o) -> o.getId() == undeliveredId));
+            assertEquals(0, stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_LEGACY_STREAM_KEY, VoucherOrderConsumer.GROUP).getTotalPendingMessages());
+        } finally {
+            stringRedisTemplate.delete(SECKILL_ORDER_LEGACY_STREAM_KEY);
+        }
+    }
+
+    private PendingMessages pending(String id) {
+        return stringRedisTemplate.opsForStream().pending(STREAM_KEY, VoucherOrderConsumer.GROUP, Range.closed(id, id), 1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对比加锁、查重的逐条落库和插入去重的批量落库（订单数/秒），并校验消息重放不会重复下单、重复扣库存。
+ * 需要连本地 MySQL 和 Redis，tb_voucher_order 要先执行 db/tb_voucher_order_unique.sql 加上唯一索引。
+ * 订单数默认 10 万，可以用 -Dbench.orders 调小；会临时插入一张秒杀券和一批订单，测完删掉
+ */
+@SpringBootTest(properties = "hmdp.seckill.order.consumer-enabled=false")
+public class VoucherOrderIdempotentBenchmarkTest {
+    // 临时秒杀券id，选一个业务里不会用到的大id
+    private static final long LOCK_VOUCHER_ID = 9_000_000_501L;
+    private static final long INSERT_VOUCHER_ID = 9_000_000_502L;
+    private static final int ORDERS = Integer.getInteger("bench.orders", 100_000);
+    private static final int BATCH_SIZE = 100;
+
+    @Resource
+    private VoucherOrderServiceImpl voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @BeforeEach
+    public void setUp() {
+        for (long voucherId : new long[]{LOCK_VOUCHER_ID, INSERT_VOUCHER_ID}) {
+            SeckillVoucher voucher = new SeckillVoucher();
+            voucher.setVoucherId(voucherId);
+            voucher.setStock(ORDERS);
+            seckillVoucherService.save(voucher);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (long voucherId : new long[]{LOCK_VOUCHER_ID, INSERT_VOUCHER_ID}) {
+            voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+            seckillVoucherService.removeById(voucherId);
+        }
+    }
+
+    @Test
+    public void lockVersusInsertIfAbsent() {
+        // 1.老流程：逐条加锁、查重、扣库存、插入
+        List<VoucherOrder> lockOrders = orders(LOCK_VOUCHER_ID);
+        long begin = System.nanoTime();
+        lockOrders.forEach(voucherOrderService::createVoucherOrderWithLock);
+        print("lock+select", begin);
+
+        // 2.插入去重：不加锁、不查询，批量 INSERT IGNORE
+        List<VoucherOrder> orders = orders(INSERT_VOUCHER_ID);
+        begin = System.nanoTime();
+        for (int i = 0; i < ORDERS; i += BATCH_SIZE) {
+            List<VoucherOrder> rejected = voucherOrderService.insertVoucherOrdersIfAbsent(orders.subList(i, Math.min(i + BATCH_SIZE, ORDERS)));
+            assertTrue(rejected.isEmpty());
+        }
+        print("insert-if-absent", begin);
+        assertEquals(0, stock(INSERT_VOUCHER_ID));
+
+        // 3.整批重放：不报错、不新增订单、不再扣库存
+        for (int i = 0; i < ORDERS; i += BATCH_SIZE) {
+            assertTrue(voucherOrderService.insertVoucherOrdersIfAbsent(orders.subList(i, Math.min(i + BATCH_SIZE, ORDERS))).isEmpty());
+        }
+        assertEquals(ORDERS, count(INSERT_VOUCHER_ID));
+        assertEquals(0, stock(INSERT_VOUCHER_ID));
+
+        // 4.同一用户换个订单id再下单，被唯一索引挡住
+        VoucherOrder duplicate = new VoucherOrder().setId(IdUtil.getSnowflake().nextId())
+                .setUserId(orders.get(0).getUserId()).setVoucherId(INSERT_VOUCHER_ID);
+        List<VoucherOrder> rejected = new ArrayList<>();
+        rejected.add(duplicate);
+        assertEquals(rejected, voucherOrderService.insertVoucherOrdersIfAbsent(rejected));
+        assertEquals(ORDERS, count(INSERT_VOUCHER_ID));
+    }
+
+    private List<VoucherOrder> orders(long voucherId) {
+        // 先把订单都生成好，计时只算落库
+        List<VoucherOrder> orders = new ArrayList<>(ORDERS);
+        for (int i = 0; i < ORDERS; i++) {
+            orders.add(new VoucherOrder().setId(IdUtil.getSnowflake().nextId()).setUserId(i + 1L).setVoucherId(voucherId));
+        }
+        return orders;
+    }
+
+    private int stock(long voucherId) {
+        return seckillVoucherService.getById(voucherId).getStock();
+    }
+
+    private int count(long voucherId) {
+        return voucherOrderService.count(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+    }
+
+    private static void print(String mode, long begin) {
+        long costMs = Math.max((System.nanoTime() - begin) / 1_000_000, 1);
+        System.out.printf("%-16s orders=%d cost=%dms throughput=%d orders/s%n", mode, ORDERS, costMs, ORDERS * 1000L / costMs);
+    }
+}
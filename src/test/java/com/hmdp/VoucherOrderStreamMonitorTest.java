@@ -0,0 +1,84 @@
+package com.hmdp;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.service.impl.VoucherOrderConsumer;
+import com.hmdp.service.impl.VoucherOrderStreamMonitor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单队列裁剪：只删已确认的消息，pending-list 里的和还没投递的都保留。
+ * 只连 Redis，关闭订单消费，分区数调大后用最后一个（业务里用不到的）分区
+ */
+@SpringBootTest(properties = {"hmdp.seckill.order.consumer-enabled=false", "hmdp.seckill.order.partitions=8",
+        "hmdp.seckill.order.trim-interval=1h"})
+public class VoucherOrderStreamMonitorTest {
+    private static final String STREAM_KEY = VoucherOrderConsumer.streamKey(7);
+    private static final int DELIVERED = 500;
+    private static final int UNDELIVERED = 10;
+
+    @Resource
+    private VoucherOrderStreamMonitor voucherOrderStreamMonitor;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    public void tearDown() {
+        stringRedisTemplate.delete(STREAM_KEY);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void trimKeepsPendingAndUndelivered() {
+        stringRedisTemplate.delete(STREAM_KEY);
+        for (int i = 0; i < DELIVERED; i++) {
+            stringRedisTemplate.opsForStream().add(STREAM_KEY, Collections.singletonMap("id", String.valueOf(i)));
+        }
+        stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), VoucherOrderConsumer.GROUP);
+        // 1.全部投递给一个消费者，除了中间一条都确认掉
+        List<MapRecord<String, Object, Object>> read = stringRedisTemplate.opsForStream().read(
+                Consumer.from(VoucherOrderConsumer.GROUP, "test-trim"),
+                StreamReadOptions.empty().count(DELIVERED),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()));
+        assertEquals(DELIVERED, read.size());
+        RecordId pending = read.get(DELIVERED / 2).getId();
+        RecordId[] acked = read.stream().map(MapRecord::getId).filter(id -> !id.equals(pending)).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, VoucherOrderConsumer.GROUP, acked);
+        // 2.再写入几条还没投递的
+        List<RecordId> undelivered = new ArrayList<>();
+        for (int i = 0; i < UNDELIVERED; i++) {
+            undelivered.add(stringRedisTemplate.opsForStream().add(STREAM_KEY, Collections.singletonMap("id", "new" + i)));
+        }
+
+        ReflectUtil.invoke(voucherOrderStreamMonitor, "trimAcknowledged");
+
+        // 3.pending 之前已确认的消息被删掉了一部分（按内部节点整块删除，不一定删完）
+        List<RecordId> remaining = stringRedisTemplate.opsForStream().range(STREAM_KEY, Range.unbounded())
+                .stream().map(MapRecord::getId).collect(Collectors.toList());
+        assertTrue(remaining.size() < DELIVERED + UNDELIVERED);
+        // 4.pending 的消息、它之后的消息、还没投递的消息都还在
+        for (MapRecord<String, Object, Object> r : read.subList(DELIVERED / 2, DELIVERED)) {
+            assertTrue(remaining.contains(r.getId()));
+        }
+        assertTrue(remaining.containsAll(undelivered));
+        assertEquals(1, stringRedisTemplate.opsForStream().pending(STREAM_KEY, VoucherOrderConsumer.GROUP).getTotalPendingMessages());
+    }
+}